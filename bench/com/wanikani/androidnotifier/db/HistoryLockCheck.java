@@ -0,0 +1,227 @@
+package com.wanikani.androidnotifier.db;
+
+/* 
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Checks that plot pages keep loading while the history database is 
+ * being written, in both locking modes of {@link HistoryLock}.
+ * Page loads are simulated by reader threads that take the read lock
+ * for a few milliseconds, as <code>HistoryDatabaseCache</code> does
+ * while querying a page. Two writers are simulated:
+ * <ul>
+ * <li>A long write (e.g. a database fixup) holding the write lock
+ * 	throughout. In WAL mode pages must load while the lock is held.
+ * <li>A reconstruction, following the lock pattern of 
+ * 	<code>ReconstructDialog</code>: a short write to start, a long 
+ * 	download with no lock, and a short write to merge the results.
+ * 	In both modes pages must load during the download, and no page 
+ * 	may wait longer than the merge.
+ * </ul>
+ * Runs on a plain JVM, and exits with a non-zero status if a check fails.
+ */
+public class HistoryLockCheck {
+
+	/**
+	 * A plot page loader. Loads pages until stopped, keeping track
+	 * of the slowest one.
+	 */
+	private static class Reader extends Thread {
+		
+		/// The lock
+		HistoryLock lock;
+		
+		/// Number of pages loaded while a writer was active
+		volatile int pages;
+		
+		/// The longest time a page load took, in milliseconds
+		volatile long maxLatency;
+		
+		/// Set when the reader should stop
+		volatile boolean stop;
+		
+		/// Set while a writer is active
+		volatile boolean writing;
+		
+		public Reader (HistoryLock lock)
+		{
+			this.lock = lock;
+			
+			setDaemon (true);
+		}
+		
+		@Override
+		public void run ()
+		{
+			long start, latency;
+			
+			while (!stop) {
+				start = System.currentTimeMillis ();
+				lock.beginRead ();
+				try {
+					sleep (PAGE_MS);
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					lock.endRead ();
+				}
+				latency = System.currentTimeMillis () - start;
+				if (writing) {
+					pages++;
+					maxLatency = Math.max (maxLatency, latency);
+				}
+			}
+		}
+	}
+	
+	/// Time needed to query a page
+	private static final long PAGE_MS = 5;
+	
+	/// Duration of a long write
+	private static final long WRITE_MS = 1000;
+	
+	/// Duration of the start phase of a reconstruction
+	private static final long START_MS = 50;
+	
+	/// Duration of the download phase of a reconstruction
+	private static final long DOWNLOAD_MS = 1000;
+	
+	/// Duration of the merge phase of a reconstruction
+	private static final long MERGE_MS = 100;
+	
+	/// Scheduling slack allowed on top of the expected waits
+	private static final long SLACK_MS = 100;
+	
+	/// Number of reader threads
+	private static final int READERS = 3;
+	
+	/// Number of failed checks
+	private static int failures;
+	
+	/**
+	 * Holds the write lock for a long time.
+	 * @param lock the lock
+	 */
+	private static void longWrite (HistoryLock lock)
+		throws InterruptedException
+	{
+		lock.beginWrite ();
+		try {
+			Thread.sleep (WRITE_MS);
+		} finally {
+			lock.endWrite ();
+		}
+	}
+	
+	/**
+	 * Simulates a reconstruction. Locks are taken as in 
+	 * <code>ReconstructDialog.Task.doInBackground</code>.
+	 * @param lock the lock
+	 */
+	private static void reconstruct (HistoryLock lock)
+		throws InterruptedException
+	{
+		lock.beginWrite ();
+		try {
+			Thread.sleep (START_MS);
+		} finally {
+			lock.endWrite ();
+		}
+		
+		Thread.sleep (DOWNLOAD_MS);
+		
+		lock.beginWrite ();
+		try {
+			Thread.sleep (MERGE_MS);
+		} finally {
+			lock.endWrite ();
+		}
+	}
+	
+	/**
+	 * Runs one writer against a set of readers.
+	 * @param wal the locking mode
+	 * @param reconstruct set to simulate a reconstruction, unset for a long write
+	 * @param minPages the minimum number of pages that must be loaded 
+	 * @param maxLatency the maximum time a page load may take, in milliseconds
+	 */
+	private static void check (boolean wal, boolean reconstruct, int minPages, long maxLatency)
+		throws InterruptedException
+	{
+		Reader readers [];
+		HistoryLock lock;
+		long latency;
+		int i, pages;
+		
+		lock = new HistoryLock (wal);
+		readers = new Reader [READERS];
+		for (i = 0; i < READERS; i++) {
+			readers [i] = new Reader (lock);
+			readers [i].start ();
+		}
+		
+		for (Reader r : readers)
+			r.writing = true;
+		if (reconstruct)
+			reconstruct (lock);
+		else
+			longWrite (lock);
+		for (Reader r : readers)
+			r.writing = false;
+		
+		pages = 0;
+		latency = 0;
+		for (Reader r : readers) {
+			r.stop = true;
+			r.join ();
+			pages += r.pages;
+			latency = Math.max (latency, r.maxLatency);
+		}
+		
+		System.out.println ((wal ? "WAL     " : "non-WAL ") + 
+							(reconstruct ? "reconstruction: " : "long write:     ") +
+							pages + " pages loaded, slowest took " + latency + " ms");
+		if (pages < minPages) {
+			System.out.println ("  FAILED: expected at least " + minPages + " pages");
+			failures++;
+		}
+		if (latency > maxLatency) {
+			System.out.println ("  FAILED: expected no page to take more than " + maxLatency + " ms");
+			failures++;
+		}
+	}
+	
+	public static void main (String args [])
+		throws InterruptedException
+	{
+		int pages;
+		
+		/* Pages that can be loaded by the readers in a given time, with a 
+		 * wide margin, since sleeps may take longer than requested */
+		pages = (int) (READERS * DOWNLOAD_MS / PAGE_MS / 4);
+		
+		check (true, false, pages, PAGE_MS + SLACK_MS);
+		check (true, true, pages, PAGE_MS + SLACK_MS);
+		check (false, true, pages, Math.max (START_MS, MERGE_MS) + PAGE_MS + SLACK_MS);
+		
+		if (failures > 0) {
+			System.out.println (failures + " checks failed");
+			System.exit (1);
+		}
+		System.out.println ("All checks passed");
+	}
+}
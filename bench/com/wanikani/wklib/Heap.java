@@ -0,0 +1,136 @@
+package com.wanikani.wklib;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Heap measurements for the benchmarks. The peak heap of a task is the
+ * largest heap in use right after a collection, while the task runs,
+ * so it counts live objects only. It is sampled once per collection,
+ * so it is precise only if collections are frequent: run with a small
+ * young generation (e.g. <code>-XX:+UseSerialGC -Xmn1m</code>).
+ * Needs a HotSpot JVM.
+ */
+public class Heap implements NotificationListener {
+
+	/// Names of the heap memory pools
+	private Set<String> pools;
+
+	/// Heap in use before the task started
+	private long base;
+
+	/// Largest heap in use after a collection
+	private volatile long peak;
+
+	/// Set while the task runs
+	private volatile boolean running;
+
+	/**
+	 * Returns the heap in use, after a full collection.
+	 * @return the heap in use, in bytes
+	 */
+	public static long used ()
+	{
+		Runtime rt;
+		int i;
+
+		rt = Runtime.getRuntime ();
+		for (i = 0; i < 3; i++)
+			System.gc ();
+
+		return rt.totalMemory () - rt.freeMemory ();
+	}
+
+	/**
+	 * Starts measuring the peak heap of a task.
+	 */
+	public void start ()
+	{
+		pools = new HashSet<String> ();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans ())
+			if (pool.getType () == MemoryType.HEAP)
+				pools.add (pool.getName ());
+
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans ())
+			((NotificationEmitter) gc).addNotificationListener (this, null, null);
+
+		base = used ();
+		peak = base;
+		running = true;
+	}
+
+	/**
+	 * Stops measuring. The result of the task should still be
+	 * reachable when this method is called.
+	 * @return the peak heap, in bytes, over the heap in use when
+	 * 	{@link #start()} was called
+	 */
+	public long stop ()
+		throws InterruptedException
+	{
+		long last;
+
+		last = used ();
+		/* Notifications are delivered by another thread */
+		Thread.sleep (200);
+		running = false;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans ()) {
+			try {
+				((NotificationEmitter) gc).removeNotificationListener (this);
+			} catch (Exception e) {
+				/* Not registered */
+			}
+		}
+
+		return Math.max (peak, last) - base;
+	}
+
+	public void handleNotification (Notification n, Object handback)
+	{
+		GarbageCollectionNotificationInfo info;
+		long used;
+
+		if (!running || !n.getType ().equals
+				(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+			return;
+
+		info = GarbageCollectionNotificationInfo.from ((CompositeData) n.getUserData ());
+		used = 0;
+		for (Map.Entry<String, MemoryUsage> e : 
+				info.getGcInfo ().getMemoryUsageAfterGc ().entrySet ())
+			if (pools.contains (e.getKey ()))
+				used += e.getValue ().getUsed ();
+		if (used > peak)
+			peak = used;
+	}
+}
@@ -0,0 +1,148 @@
+package com.wanikani.wklib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares {@link ItemCodec} with plain Java serialization, on all the
+ * radicals, kanji and vocabulary of a level 60 user (built by
+ * {@link SampleData}). For each of them it reports the encoded size
+ * and the time needed to encode and decode the library.
+ */
+public class ItemCodecBenchmark {
+
+	/// Warmup runs
+	private static final int WARMUP = 10;
+
+	/// Timed runs
+	private static final int RUNS = 20;
+
+	/**
+	 * Builds the library of a level 60 user.
+	 * @return the library
+	 */
+	private static ItemLibrary<Item> library ()
+		throws Exception
+	{
+		ItemLibrary<Item> ans;
+
+		ans = new ItemLibrary<Item> ();
+		ans.add (library (Item.Type.RADICAL, Radical.FACTORY));
+		ans.add (library (Item.Type.KANJI, Kanji.FACTORY));
+		ans.add (library (Item.Type.VOCABULARY, Vocabulary.FACTORY));
+
+		return ans;
+	}
+
+	private static <T extends Item> ItemLibrary<T> library (Item.Type type, Item.Factory<T> factory)
+		throws Exception
+	{
+		JSONArray array;
+
+		array = new JSONObject (SampleData.response (type)).getJSONArray ("requested_information");
+
+		return new ItemLibrary<T> (factory, array);
+	}
+
+	private static byte [] encode (boolean codec, ItemLibrary<Item> lib)
+		throws IOException
+	{
+		ByteArrayOutputStream bos;
+		ObjectOutputStream oos;
+		ItemCodec.Output out;
+
+		bos = new ByteArrayOutputStream ();
+		if (codec) {
+			out = new ItemCodec.Output (bos);
+			out.writeHeader ();
+			out.writeLibrary (lib);
+			out.close ();
+		} else {
+			oos = new ObjectOutputStream (bos);
+			oos.writeObject (lib);
+			oos.close ();
+		}
+
+		return bos.toByteArray ();
+	}
+
+	@SuppressWarnings ("unchecked")
+	private static ItemLibrary<Item> decode (boolean codec, byte data [])
+		throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream ois;
+		ItemCodec.Input in;
+
+		if (codec) {
+			in = new ItemCodec.Input (new ByteArrayInputStream (data));
+			in.readHeader ();
+
+			return in.readLibrary ();
+		} else {
+			ois = new ObjectInputStream (new ByteArrayInputStream (data));
+
+			return (ItemLibrary<Item>) ois.readObject ();
+		}
+	}
+
+	private static void run (boolean codec, ItemLibrary<Item> lib)
+		throws Exception
+	{
+		long start, encode, decode;
+		byte data [];
+		int i, n;
+
+		data = null;
+		for (i = 0; i < WARMUP; i++)
+			decode (codec, encode (codec, lib));
+
+		start = System.nanoTime ();
+		for (i = 0; i < RUNS; i++)
+			data = encode (codec, lib);
+		encode = (System.nanoTime () - start) / RUNS;
+
+		n = 0;
+		start = System.nanoTime ();
+		for (i = 0; i < RUNS; i++)
+			n = decode (codec, data).list.size ();
+		decode = (System.nanoTime () - start) / RUNS;
+
+		System.out.printf ("%-19s %5d items, %7.1f KB, encode %6.1f ms, decode %6.1f ms%n",
+						   codec ? "ItemCodec:" : "ObjectOutputStream:", n,
+						   data.length / 1024.0, encode / 1e6, decode / 1e6);
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		ItemLibrary<Item> lib;
+
+		lib = library ();
+
+		run (false, lib);
+		run (true, lib);
+	}
+}
@@ -0,0 +1,71 @@
+package com.wanikani.wklib;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Measures the heap retained by the items of a level 60 user
+ * (built by {@link SampleData}), once they have been parsed into
+ * item libraries, as they are kept by the items cache.
+ * The JSON responses are parsed before the measurement starts,
+ * so only the items are counted.
+ */
+public class ItemHeapBenchmark {
+
+	private static <T extends Item> ItemLibrary<T> library (JSONArray array, Item.Factory<T> factory)
+		throws Exception
+	{
+		return new ItemLibrary<T> (factory, array);
+	}
+
+	private static JSONArray array (Item.Type type)
+		throws Exception
+	{
+		return new JSONObject (SampleData.response (type)).getJSONArray ("requested_information");
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		JSONArray radicals, kanji, vocab;
+		ItemLibrary<Item> lib;
+		long before, after;
+		int n;
+
+		radicals = array (Item.Type.RADICAL);
+		kanji = array (Item.Type.KANJI);
+		vocab = array (Item.Type.VOCABULARY);
+
+		before = Heap.used ();
+		lib = new ItemLibrary<Item> ();
+		lib.add (library (radicals, Radical.FACTORY));
+		lib.add (library (kanji, Kanji.FACTORY));
+		lib.add (library (vocab, Vocabulary.FACTORY));
+		after = Heap.used ();
+
+		n = lib.list.size ();
+		System.out.printf ("%d items, %.1f KB retained, %d bytes per item%n",
+						   n, (after - before) / 1024.0, (after - before) / n);
+
+		/* Keep everything reachable until the end */
+		if (radicals.length () + kanji.length () + vocab.length () != n)
+			System.exit (1);
+	}
+}
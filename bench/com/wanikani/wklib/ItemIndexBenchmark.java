@@ -0,0 +1,174 @@
+package com.wanikani.wklib;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares {@link ItemIndex} lookups with a scan calling
+ * {@link Item#matches(String)} on each item, on the vocabulary of
+ * a level 60 user (built by {@link SampleData}).
+ * A user typing a few words in romaji is simulated: each keystroke
+ * is expanded with {@link ItemIndex#queries(JapaneseIME, String)}
+ * and looked up. The two searches must give the same rows, otherwise
+ * the benchmark exits with a non-zero status.
+ */
+public class ItemIndexBenchmark {
+
+	/// The words typed by the user
+	private static final String WORDS [] = {
+		"karito", "mosune", "chiho", "yura", "anber", "dunel", "harjo", "suka"
+	};
+
+	/// Timed runs
+	private static final int RUNS = 20;
+
+	/**
+	 * Looks up all the keystrokes of all the words with the index.
+	 * @param table the table
+	 * @param ime the IME
+	 * @return the total number of matches
+	 */
+	private static long index (ItemTable table, JapaneseIME ime)
+	{
+		long ans;
+		int i;
+
+		ans = 0;
+		for (String w : WORDS)
+			for (i = 1; i <= w.length (); i++)
+				ans += table.getIndex ().search (ItemIndex.queries (ime, w.substring (0, i)), 0).length;
+
+		return ans;
+	}
+
+	/**
+	 * Looks up all the keystrokes of all the words by scanning the items.
+	 * @param table the table
+	 * @param ime the IME
+	 * @return the total number of matches
+	 */
+	private static long scan (ItemTable table, JapaneseIME ime)
+	{
+		long ans;
+		int i;
+
+		ans = 0;
+		for (String w : WORDS)
+			for (i = 1; i <= w.length (); i++)
+				ans += scan (table, ItemIndex.queries (ime, w.substring (0, i))).length;
+
+		return ans;
+	}
+
+	private static int [] scan (ItemTable table, String qs [])
+	{
+		int ans [], tmp [];
+		int i, k;
+
+		tmp = new int [table.size ()];
+		k = 0;
+		for (i = 0; i < table.size (); i++)
+			for (String q : qs)
+				if (table.get (i).matches (q)) {
+					tmp [k++] = i;
+					break;
+				}
+
+		ans = new int [k];
+		System.arraycopy (tmp, 0, ans, 0, k);
+
+		return ans;
+	}
+
+	/**
+	 * Checks that both searches give the same rows.
+	 * @return the number of keystrokes whose results differ
+	 */
+	private static int check (ItemTable table, JapaneseIME ime)
+	{
+		String qs [];
+		int i, errors;
+
+		errors = 0;
+		for (String w : WORDS)
+			for (i = 1; i <= w.length (); i++) {
+				qs = ItemIndex.queries (ime, w.substring (0, i));
+				if (!Arrays.equals (table.getIndex ().search (qs, 0), scan (table, qs))) {
+					System.out.println ("Results differ for " + Arrays.toString (qs));
+					errors++;
+				}
+			}
+
+		return errors;
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		ItemLibrary<Vocabulary> lib;
+		long start, build, time, matches;
+		int i, keys;
+		JapaneseIME ime;
+		JSONArray array;
+		ItemTable table;
+
+		array = new JSONObject (SampleData.response (Item.Type.VOCABULARY)).
+				getJSONArray ("requested_information");
+		lib = new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, array);
+		ime = new JapaneseIME ();
+
+		keys = 0;
+		for (String w : WORDS)
+			keys += w.length ();
+
+		if (check (new ItemTable (lib.list), ime) > 0)
+			System.exit (1);
+
+		/* Warmup */
+		table = new ItemTable (lib.list);
+		for (i = 0; i < RUNS; i++) {
+			index (table, ime);
+			scan (table, ime);
+		}
+
+		table = new ItemTable (lib.list);
+		start = System.nanoTime ();
+		table.getIndex ().search ("a", 0);
+		build = System.nanoTime () - start;
+
+		matches = 0;
+		start = System.nanoTime ();
+		for (i = 0; i < RUNS; i++)
+			matches = index (table, ime);
+		time = (System.nanoTime () - start) / RUNS / keys;
+		System.out.printf ("%d items, %d keystrokes, %d matches%n",
+						   table.size (), keys, matches);
+		System.out.printf ("ItemIndex: %7.3f ms per keystroke (first search %.1f ms)%n",
+						   time / 1e6, build / 1e6);
+
+		start = System.nanoTime ();
+		for (i = 0; i < RUNS; i++)
+			matches = scan (table, ime);
+		time = (System.nanoTime () - start) / RUNS / keys;
+		System.out.printf ("Scan:      %7.3f ms per keystroke%n", time / 1e6);
+	}
+}
@@ -0,0 +1,247 @@
+package com.wanikani.wklib;
+
+import java.util.Random;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Builds synthetic API responses for the benchmarks. The responses have
+ * the shape of the real ones, and roughly the size of the ones a level 60
+ * user gets: {@link #RADICALS}, {@link #KANJI} and {@link #VOCABULARY}
+ * items per level. Characters, readings and meanings are random, but
+ * the same on every run.
+ */
+public class SampleData {
+
+	/// Number of levels
+	public static final int LEVELS = 60;
+
+	/// Radicals per level
+	public static final int RADICALS = 8;
+
+	/// Kanji per level
+	public static final int KANJI = 33;
+
+	/// Vocabulary items per level
+	public static final int VOCABULARY = 100;
+
+	/// First level whose items may still be locked
+	private static final int LOCKED_LEVEL = 56;
+
+	/// Epoch second of the first unlock
+	private static final long START = 1357000000L;
+
+	/// Seconds between two levelups
+	private static final long LEVEL_SECONDS = 10 * 24 * 3600L;
+
+	/// Syllables meanings are made of
+	private static final String SYLLABLES [] = {
+		"ka", "ri", "to", "mo", "su", "ne", "ra", "chi", "ho", "yu",
+		"an", "ber", "cor", "dun", "el", "fa", "gil", "har", "is", "jo"
+	};
+
+	/// SRS levels, by age of the item
+	private static final String SRS [] = {
+		"burned", "enlighten", "master", "guru", "apprentice"
+	};
+
+	/// The generator
+	private Random rnd;
+
+	/// The output
+	private StringBuilder sb;
+
+	private SampleData (long seed)
+	{
+		rnd = new Random (seed);
+		sb = new StringBuilder ();
+	}
+
+	/**
+	 * Builds the response to a radicals, kanji or vocabulary request
+	 * for all the levels.
+	 * @param type the item type
+	 * @return the JSON response
+	 */
+	public static String response (Item.Type type)
+	{
+		return new SampleData (type.ordinal ()).build (type);
+	}
+
+	private String build (Item.Type type)
+	{
+		int level, i, count;
+
+		sb.append ("{\"user_information\":{");
+		string ("username", "bench").append (',');
+		string ("gravatar", "0123456789abcdef0123456789abcdef").append (',');
+		number ("level", LEVELS).append (',');
+		string ("title", "Turtles").append (',');
+		string ("about", "").append (',');
+		string ("website", null).append (',');
+		string ("twitter", null).append (',');
+		number ("topics_count", 3).append (',');
+		number ("posts_count", 42).append (',');
+		number ("creation_date", START).append (',');
+		string ("vacation_date", null);
+		sb.append ("},\"requested_information\":[");
+
+		count = type == Item.Type.RADICAL ? RADICALS :
+				type == Item.Type.KANJI ? KANJI : VOCABULARY;
+		for (level = 1; level <= LEVELS; level++) {
+			for (i = 0; i < count; i++) {
+				if (level > 1 || i > 0)
+					sb.append (',');
+				item (type, level);
+			}
+		}
+		sb.append ("]}");
+
+		return sb.toString ();
+	}
+
+	private void item (Item.Type type, int level)
+	{
+		sb.append ('{');
+		switch (type) {
+		case RADICAL:
+			string ("character", kanji (1)).append (',');
+			string ("meaning", words (1)).append (',');
+			string ("image", null).append (',');
+			break;
+
+		case KANJI:
+			string ("character", kanji (1)).append (',');
+			string ("meaning", words (1 + rnd.nextInt (2))).append (',');
+			string ("onyomi", kana (2)).append (',');
+			string ("kunyomi", kana (3)).append (',');
+			string ("important_reading", rnd.nextBoolean () ? "onyomi" : "kunyomi").append (',');
+			break;
+
+		case VOCABULARY:
+			string ("character", kanji (1 + rnd.nextInt (2)) + kana (rnd.nextInt (3))).append (',');
+			string ("kana", kana (2 + rnd.nextInt (4))).append (',');
+			string ("meaning", words (1 + rnd.nextInt (3))).append (',');
+			break;
+		}
+		number ("level", level).append (',');
+		sb.append ("\"user_specific\":");
+		if (level >= LOCKED_LEVEL && rnd.nextBoolean ())
+			sb.append ("null");
+		else
+			stats (type != Item.Type.RADICAL, level);
+		sb.append ('}');
+	}
+
+	private void stats (boolean reading, int level)
+	{
+		long unlocked;
+		String srs;
+		int age;
+
+		unlocked = START + (level - 1) * LEVEL_SECONDS + rnd.nextInt (86400);
+		age = (LEVELS - level) * SRS.length / LEVELS;
+		srs = SRS [Math.max (0, Math.min (SRS.length - 1, SRS.length - 1 - age))];
+
+		sb.append ('{');
+		string ("srs", srs).append (',');
+		number ("unlocked_date", unlocked).append (',');
+		number ("available_date", unlocked + rnd.nextInt (1000) * 3600L).append (',');
+		if (srs.equals ("burned")) {
+			number ("burned_date", unlocked + 200 * 86400L).append (',');
+			sb.append ("\"burned\":true,");
+		} else {
+			number ("burned_date", 0).append (',');
+			sb.append ("\"burned\":false,");
+		}
+		performance ("meaning");
+		if (reading)
+			performance ("reading");
+		string ("meaning_note", null).append (',');
+		string ("reading_note", null).append (',');
+		string ("user_synonyms", null);
+		sb.append ('}');
+	}
+
+	private void performance (String prefix)
+	{
+		int correct, streak;
+
+		correct = rnd.nextInt (12);
+		streak = correct > 0 ? rnd.nextInt (correct) : 0;
+		number (prefix + "_correct", correct).append (',');
+		number (prefix + "_incorrect", rnd.nextInt (5)).append (',');
+		number (prefix + "_max_streak", streak).append (',');
+		number (prefix + "_current_streak", streak).append (',');
+	}
+
+	private StringBuilder string (String key, String value)
+	{
+		sb.append ('"').append (key).append ("\":");
+		if (value != null)
+			sb.append ('"').append (value).append ('"');
+		else
+			sb.append ("null");
+
+		return sb;
+	}
+
+	private StringBuilder number (String key, long value)
+	{
+		return sb.append ('"').append (key).append ("\":").append (value);
+	}
+
+	private String kanji (int n)
+	{
+		StringBuilder ans;
+
+		ans = new StringBuilder ();
+		while (n-- > 0)
+			ans.append ((char) (0x4e00 + rnd.nextInt (0x5000)));
+
+		return ans.toString ();
+	}
+
+	private String kana (int n)
+	{
+		StringBuilder ans;
+
+		ans = new StringBuilder ();
+		while (n-- > 0)
+			ans.append ((char) (0x3041 + rnd.nextInt (0x53)));
+
+		return ans.toString ();
+	}
+
+	private String words (int n)
+	{
+		StringBuilder ans;
+		int i, len;
+
+		ans = new StringBuilder ();
+		for (i = 0; i < n; i++) {
+			if (i > 0)
+				ans.append (", ");
+			len = 2 + rnd.nextInt (3);
+			while (len-- > 0)
+				ans.append (SYLLABLES [rnd.nextInt (SYLLABLES.length)]);
+		}
+
+		return ans.toString ();
+	}
+}
@@ -0,0 +1,161 @@
+package com.wanikani.wklib;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the two ways a vocabulary response can be parsed:
+ * copying the body into a String and building a JSON tree of it,
+ * as <code>Connection</code> used to do, and streaming it through
+ * {@link Connection.StreamingResponse}. For each of them it reports
+ * parse time and peak heap (see {@link Heap}).
+ * The response is built by {@link SampleData}.
+ */
+public class StreamingBenchmark {
+
+	/// A meter that ignores everything
+	private static final Connection.Meter METER = new Connection.Meter () {
+
+		public void count (int data) { /* empty */ }
+
+		public void sync () { /* empty */ }
+
+		public void saved (int data) { /* empty */ }
+	};
+
+	/// Warmup runs
+	private static final int WARMUP = 5;
+
+	/// Timed runs
+	private static final int RUNS = 10;
+
+	/// The connection the responses belong to
+	private static Connection conn = new Connection (new UserLogin ("bench"));
+
+	/**
+	 * Parses a response the old way.
+	 * @param data the response
+	 * @return the items
+	 */
+	private static ItemLibrary<Vocabulary> tree (byte data [])
+		throws IOException, JSONException
+	{
+		Connection.Response res;
+		JSONTokener tok;
+		String str;
+
+		str = readStream (METER, new ByteArrayInputStream (data));
+		tok = new JSONTokener (str);
+		res = conn.new Response (new JSONObject (tok), true);
+
+		return new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, res.infoAsArray);
+	}
+
+	/**
+	 * Parses a response from a stream.
+	 * @param data the response
+	 * @return the items
+	 */
+	private static ItemLibrary<Vocabulary> stream (byte data [])
+		throws IOException, JSONException
+	{
+		JSONStreamReader rd;
+
+		rd = new JSONStreamReader (METER, new ByteArrayInputStream (data));
+
+		return conn.new StreamingResponse<Vocabulary> (rd, Vocabulary.FACTORY).lib;
+	}
+
+	/**
+	 * The body reader <code>Connection</code> used before streaming.
+	 */
+	private static String readStream (Connection.Meter meter, InputStream is)
+		throws IOException
+	{
+		InputStreamReader ir;
+		StringBuffer sb;
+		char buf [];
+		int rd;
+
+		buf = new char [1024];
+		sb = new StringBuffer ();
+		ir = new InputStreamReader (is, "UTF-8");
+		while (true) {
+			rd = ir.read (buf, 0, buf.length);
+			if (rd < 0)
+				break;
+			meter.count (rd);
+			sb.append (buf, 0, rd);
+		}
+
+		meter.sync ();
+		return sb.toString ();
+	}
+
+	private static ItemLibrary<Vocabulary> parse (boolean streaming, byte data [])
+		throws IOException, JSONException
+	{
+		return streaming ? stream (data) : tree (data);
+	}
+
+	private static void run (boolean streaming, byte data [])
+		throws Exception
+	{
+		ItemLibrary<Vocabulary> lib;
+		long start, time, peak;
+		Heap heap;
+		int i;
+
+		for (i = 0; i < WARMUP; i++)
+			parse (streaming, data);
+
+		start = System.nanoTime ();
+		for (i = 0; i < RUNS; i++)
+			parse (streaming, data);
+		time = (System.nanoTime () - start) / RUNS;
+
+		heap = new Heap ();
+		heap.start ();
+		lib = parse (streaming, data);
+		peak = heap.stop ();
+
+		System.out.printf ("%-21s %5d items, %7.1f ms, peak heap %6.1f MB%n",
+						   streaming ? "JSONStreamReader:" : "String + JSONObject:",
+						   lib.list.size (), time / 1e6, peak / 1048576.0);
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		byte data [];
+
+		data = SampleData.response (Item.Type.VOCABULARY).getBytes ("UTF-8");
+		System.out.printf ("Vocabulary response: %.1f MB%n", data.length / 1048576.0);
+
+		run (false, data);
+		run (true, data);
+	}
+}
@@ -0,0 +1,226 @@
+package com.wanikani.androidnotifier;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A memory cache of bitmaps, bounded by the number of bytes taken by
+ * the decoded pixels. When the budget is exceeded, the least recently
+ * used bitmaps are evicted.
+ * Keys are spread over a few segments, each one being an access-ordered
+ * <code>LinkedHashMap</code> with its own lock and its share of the budget,
+ * so lookups and updates take constant time, do not allocate
+ * anything, and threads working on different keys seldom wait for each other.
+ */
+public class BitmapCache {
+
+	/**
+	 * A segment of the cache.
+	 */
+	private static class Segment {
+
+		/// The bitmaps, in access order (eldest first)
+		Map<String, Bitmap> map;
+
+		/// Bytes taken by the bitmaps
+		long bytes;
+
+		/// Maximum number of bytes
+		long budget;
+
+		public Segment (long budget)
+		{
+			this.budget = budget;
+
+			map = new LinkedHashMap<String, Bitmap> (16, 0.75f, true);
+		}
+
+		public synchronized Bitmap get (String key)
+		{
+			return map.get (key);
+		}
+
+		/**
+		 * Adds a bitmap, evicting older ones if needed.
+		 * @param key the key
+		 * @param bmp the bitmap
+		 * @return the number of evicted bitmaps
+		 */
+		public synchronized int put (String key, Bitmap bmp)
+		{
+			Iterator<Bitmap> i;
+			Bitmap old;
+			int ans;
+
+			old = map.put (key, bmp);
+			if (old != null)
+				bytes -= sizeOf (old);
+			bytes += sizeOf (bmp);
+
+			ans = 0;
+			i = map.values ().iterator ();
+			/* The bitmap just added is always retained */
+			while (bytes > budget && map.size () > 1) {
+				old = i.next ();
+				bytes -= sizeOf (old);
+				i.remove ();
+				ans++;
+			}
+
+			return ans;
+		}
+
+		public synchronized void clear ()
+		{
+			map.clear ();
+			bytes = 0;
+		}
+	}
+
+	/// Number of segments. Must be a power of two
+	private static final int SEGMENTS = 4;
+
+	/// The segments
+	private Segment segments [];
+
+	/// Number of lookups that found the bitmap
+	private AtomicLong hits;
+
+	/// Number of lookups that did not find the bitmap
+	private AtomicLong misses;
+
+	/// Number of bitmaps evicted to stay within the budget
+	private AtomicLong evictions;
+
+	/**
+	 * Constructor.
+	 * @param budget the maximum number of bytes
+	 */
+	public BitmapCache (long budget)
+	{
+		int i;
+
+		segments = new Segment [SEGMENTS];
+		for (i = 0; i < SEGMENTS; i++)
+			segments [i] = new Segment (budget / SEGMENTS);
+
+		hits = new AtomicLong ();
+		misses = new AtomicLong ();
+		evictions = new AtomicLong ();
+	}
+
+	/**
+	 * Returns the number of bytes taken by the pixels of a bitmap.
+	 * @param bmp the bitmap
+	 * @return its size
+	 */
+	public static long sizeOf (Bitmap bmp)
+	{
+		/* getByteCount () is not available on older devices */
+		return (long) bmp.getRowBytes () * bmp.getHeight ();
+	}
+
+	private Segment segment (String key)
+	{
+		int h;
+
+		h = key.hashCode ();
+		h ^= h >>> 16;
+
+		return segments [h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Looks up a bitmap, marking it as the most recently used.
+	 * @param key the key
+	 * @return the bitmap, or <tt>null</tt> if not found
+	 */
+	public Bitmap get (String key)
+	{
+		Bitmap ans;
+
+		ans = segment (key).get (key);
+		if (ans != null)
+			hits.incrementAndGet ();
+		else
+			misses.incrementAndGet ();
+
+		return ans;
+	}
+
+	/**
+	 * Adds a bitmap.
+	 * @param key the key
+	 * @param bmp the bitmap
+	 */
+	public void put (String key, Bitmap bmp)
+	{
+		int n;
+
+		n = segment (key).put (key, bmp);
+		if (n > 0)
+			evictions.addAndGet (n);
+	}
+
+	/**
+	 * Removes all the bitmaps. Counters are not reset.
+	 */
+	public void clear ()
+	{
+		for (Segment s : segments)
+			s.clear ();
+	}
+
+	/**
+	 * Returns the number of bytes taken by the cached bitmaps.
+	 * @return the number of bytes
+	 */
+	public long getBytes ()
+	{
+		long ans;
+
+		ans = 0;
+		for (Segment s : segments)
+			synchronized (s) {
+				ans += s.bytes;
+			}
+
+		return ans;
+	}
+
+	public long getHits ()
+	{
+		return hits.get ();
+	}
+
+	public long getMisses ()
+	{
+		return misses.get ();
+	}
+
+	public long getEvictions ()
+	{
+		return evictions.get ();
+	}
+}
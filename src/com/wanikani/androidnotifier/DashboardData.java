@@ -109,6 +109,15 @@ class DashboardData {
 			this.ciStatus = ciStatus;
 		}
 		
+		/**
+		 * Copy constructor.
+		 * @param od the object to copy
+		 */
+		public OptionalData (OptionalData od)
+		{
+			this (od.srs, od.srsStatus, od.lp, od.lpStatus, od.criticalItems, od.ciStatus);
+		}
+		
 		/**
 		 * Empty constructor. We assume that queries are underway, so
 		 * the statuses are set to {@link DashboardData.OptionalDataStatus#RETRIEVING}
@@ -97,7 +97,8 @@ public class DatabaseFixup {
 		boolean change;
 		int i;
 		
-		synchronized (HistoryDatabase.MUTEX) {
+		HistoryDatabase.beginWrite ();
+		try {
 			hdb = new HistoryDatabase (ctxt);
 			prefs = PreferenceManager.getDefaultSharedPreferences (ctxt);
 
@@ -120,6 +121,8 @@ public class DatabaseFixup {
 			} finally {
 				hdb.close ();
 			}
+		} finally {
+			HistoryDatabase.endWrite ();
 		}
 	}
 	
@@ -1,6 +1,5 @@
 package com.wanikani.androidnotifier;
 
-import java.io.IOException;
 import java.util.List;
 
 import com.wanikani.wklib.Item;
@@ -119,11 +118,12 @@ public interface Filter {
 		void enableSorting (boolean errors, boolean unlock, boolean available);
 		
 		/**
-		 * Places a radical image into the cache, downloading it if necessary
-		 * @param a radical  
+		 * Places a set of radical images into the cache, downloading them 
+		 * if necessary. Images are loaded in parallel.
+		 * @param l the radicals
+		 * @return a batch, returning each radical as soon as its image is available  
 		 */
-		public void loadRadicalImage (Radical r)
-			throws IOException;
+		public RadicalImages.Batch loadRadicalImages (List<Radical> l);
 	}
 
 	/** 
@@ -13,6 +13,9 @@ import android.widget.EditText;
 import android.widget.ImageButton;
 
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemIndex;
+import com.wanikani.wklib.ItemTable;
+import com.wanikani.wklib.JapaneseIME;
 import com.wanikani.wklib.SRSLevel;
 
 /* 
@@ -99,6 +102,30 @@ public class ItemSearchDialog {
 				srses.put (srs, true);
 		}				
 		
+		/**
+		 * Returns the facets of the item table (type and SRS level pairs)
+		 * that match the type and SRS level criteria. 
+		 * @return an array indexed as in {@link ItemTable#facet(int, int)}
+		 */
+		public boolean [] getFacets ()
+		{
+			boolean ans [];
+			
+			ans = new boolean [ItemTable.FACETS];
+			for (Item.Type t : Item.Type.values ()) {
+				if (!types.get (t))
+					continue;
+				
+				/* Locked items may have SRS unset */
+				ans [ItemTable.facet (t.ordinal (), ItemTable.NO_SRS)] = !srsApplied;
+				for (SRSLevel srs : SRSLevel.values ())
+					ans [ItemTable.facet (t.ordinal (), srs.ordinal ())] = 
+						!srsApplied || srses.get (srs);
+			}
+			
+			return ans;
+		}
+		
 		/**
 		 * Toggles the filter on an item type. 
 		 */
@@ -317,6 +344,9 @@ public class ItemSearchDialog {
 	/// A reference to the object to notify when the filter changes
 	private Listener listener;
 
+	/// The romaji to kana translator
+	private JapaneseIME ime;
+
 	/**
 	 * Constructor
 	 * @param view the view
@@ -336,6 +366,7 @@ public class ItemSearchDialog {
 		
 		filter = (EditText) view.findViewById (R.id.et_filter);
 		filter.addTextChangedListener (new FilterWatcher ());
+		ime = new JapaneseIME ();
 		
 		typeButtons = new EnumMap<Item.Type, ImageButton> (Item.Type.class);
 		typeButtons.put (Item.Type.RADICAL, 
@@ -488,53 +519,41 @@ public class ItemSearchDialog {
 	}
 	
 	/**
-	 * Given an item list, it returns another list containing all the elements
-	 * that match the filter. The original list is not touched. The returned
-	 * object may be the original list if all the elements match the filter.
-	 * @param l the list
-	 * @return a subset
+	 * Given an item table, it returns the rows of all the elements
+	 * that match the filter. The table is not touched. 
+	 * Type and SRS level criteria are evaluated on the table facet bitsets,
+	 * and text is looked up in the table index, so the item 
+	 * objects are never accessed.
+	 * @param table the table
+	 * @return the matching rows, in increasing order
 	 */
-	public List<Item> filter (List<Item> l)
+	public int [] filter (ItemTable table)
 	{
-		List<Item> ans;
-		
-		if (!iss.visible)
-			return l;
-					
-		ans = new Vector<Item> (l.size ());
-		for (Item i : l)
-			if (matches (i))
-				ans.add (i);
-		
-		return ans;
+		return filter (table, 0);
 	}
 	
 	/**
-	 * Tells whether an item matches the filter criteria
-	 * @param i an item
-	 * @return <tt>true</tt> if it does
+	 * Same as {@link #filter(ItemTable)}, but only the rows starting
+	 * at a given position are considered. Useful when some new items
+	 * are appended to the table.
+	 * @param table the table
+	 * @param from the first row to consider
+	 * @return the matching rows, in increasing order
 	 */
-	protected boolean matches (Item i)
+	public int [] filter (ItemTable table, int from)
 	{
+		long bits [];
 		String s;
 		
-		if (!iss.types.get (i.type))
-			return false;
-		
-		if (iss.srsApplied) {
-			/* Locked items may have SRS unset */
-			if (i.stats == null || i.stats.srs == null)
-				return false;
-			
-			if (!iss.srses.get (i.stats.srs))				
-				return false;
-		}
+		if (!iss.visible)
+			return table.getRows (from);
 		
+		bits = table.select (iss.getFacets ());
 		s = filter.getText ().toString ().trim ();
-		if (s.length () == 0)
-			return true;
 		
-		return i.matches (s);
+		return s.length () > 0 ? 
+				ItemTable.retain (table.getIndex ().search (ItemIndex.queries (ime, s), from), bits) : 
+				table.getRows (bits, from);
 	}
 	
 	/**
@@ -1,7 +1,5 @@
 package com.wanikani.androidnotifier;
 
-import java.io.IOException;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumMap;
@@ -14,6 +12,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
@@ -36,6 +35,7 @@ import com.wanikani.androidnotifier.db.FontDatabase;
 import com.wanikani.androidnotifier.db.FontDatabase.FontBox;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemTable;
 import com.wanikani.wklib.Kanji;
 import com.wanikani.wklib.Radical;
 import com.wanikani.wklib.SRSLevel;
@@ -131,7 +131,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 				if (date == null)
 					return "";
 				
-				if (i.stats != null && i.stats.srs == SRSLevel.BURNED)
+				if (i.getSRS () == SRSLevel.BURNED)
 					return "";
 				
 				now = System.currentTimeMillis ();
@@ -216,6 +216,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		ERRORS {
 			public String getInfo (Resources res, Item i)
 			{
+				Item.Stats stats;
 				int pmean, pread;
 				String simple;
 				
@@ -223,19 +224,20 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 					return "";
 				
 				simple = res.getString (R.string.fmt_ii_percent, i.percentage);
-				if (i.stats == null || 
-					i.stats.reading == null || i.stats.meaning == null)
+				stats = i.getStats ();
+				if (stats == null || 
+					stats.reading == null || stats.meaning == null)
 					return simple;
 				
-				if ((i.stats.meaning.correct + i.stats.meaning.incorrect) == 0)
+				if ((stats.meaning.correct + stats.meaning.incorrect) == 0)
 					return simple;
-				if ((i.stats.reading.correct + i.stats.reading.incorrect) == 0)
+				if ((stats.reading.correct + stats.reading.incorrect) == 0)
 					return simple;
 				
-				pmean = i.stats.meaning.correct * 100 / 
-						(i.stats.meaning.correct + i.stats.meaning.incorrect);
-				pread = i.stats.reading.correct * 100 / 
-						(i.stats.reading.correct + i.stats.reading.incorrect);
+				pmean = stats.meaning.correct * 100 / 
+						(stats.meaning.correct + stats.meaning.incorrect);
+				pread = stats.reading.correct * 100 / 
+						(stats.reading.correct + stats.reading.incorrect);
 				
 				return res.getString (R.string.fmt_ii_percent_full,
 									  i.percentage, pmean, pread);
@@ -505,8 +507,8 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 			if (currentFilter != levelf)
 				level.setText (Integer.toString (item.level));				
 			
-			if (item.stats != null) {
-				srs.setImageDrawable (srsht.get (item.stats.srs));
+			if (item.hasStats ()) {
+				srs.setImageDrawable (srsht.get (item.getSRS ()));
 				srs.setVisibility (View.VISIBLE);
 			} else
 				srs.setVisibility (View.INVISIBLE);
@@ -514,8 +516,8 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 			info.setText (iinfo.getInfo (res, item));
 			if (showAnswers) {
 				sb = new SpannableStringBuilder ();
-				if (item.stats != null && item.stats.userSynonyms != null) {
-					us = item.stats.userSynonyms;
+				if (item.hasStats () && item.getStats ().userSynonyms != null) {
+					us = item.getStats ().userSynonyms;
 					for (i = 0; i < us.length; i++) 
 						sb.append (us [i]).append (", ");
 					sb.setSpan (new ForegroundColorSpan (importantColor), 0, sb.length (), 0);
@@ -535,7 +537,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 	/**
 	 * Implementation of the holder for radical item rows.
 	 */
-	private class RadicalHolder extends ItemListHolder {
+	private class RadicalHolder extends ItemListHolder implements RadicalImages.Listener {
 
 		/// The glyph, as an image
 		ImageView glyphImage;
@@ -568,6 +570,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		public void refresh (Resources res)
 		{
 			Radical radical;
+			Bitmap bmp;
 			
 			radical = (Radical) item;
 			
@@ -578,17 +581,35 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 				glyphText.setVisibility (View.VISIBLE);
 				glyphView.setVisibility (View.GONE);
 			} else {
-				try {
-					glyphImage.setImageBitmap (rimg.getImage (getActivity (), radical));
-					glyphText.setVisibility (View.GONE);
-					glyphView.setVisibility (View.VISIBLE);
-				} catch (IOException e) {
-					/* Should not happen */
-				}
+				/* Usually in the L1 cache, but it may have been evicted. In that case
+				 * it is loaded ahead of the images of rows not on screen */
+				bmp = rimg.getCachedImage (radical);
+				glyphImage.setImageBitmap (bmp);
+				glyphText.setVisibility (View.GONE);
+				glyphView.setVisibility (View.VISIBLE);
+				if (bmp == null)
+					rimg.request (main.getApplicationContext (), radical, 
+								  RadicalImages.PRIORITY_VISIBLE, this);
 			} 
 
 		}
 		
+		@Override
+		public void loaded (final Radical r, Bitmap bmp)
+		{
+			if (bmp == null)
+				return;
+			
+			main.runOnUiThread (new Runnable () {
+				public void run ()
+				{
+					/* The row may have been recycled in the meantime */
+					if (item == r)
+						refresh (main.getResources ());
+				}
+			});
+		}
+		
 	}
 
 	/**
@@ -697,11 +718,11 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 	 */
 	class ItemListAdapter extends BaseAdapter implements ItemSearchDialog.Listener {
 
-		/// The full (unfiltered) list of items.
-		List<Item> allItems;
+		/// The full (unfiltered) set of items.
+		ItemTable allItems;
 		
-		/// The current list of items. It is always sorted.
-		List<Item> filteredItems;
+		/// The rows of the items currently shown. They are always sorted.
+		int filteredRows [];
 
 		/// The current comparator
 		Comparator<Item> cmp;
@@ -723,8 +744,8 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 			this.cmp = cmp;
 			this.iinfo = iinfo;
 			
-			allItems = new Vector<Item> ();
-			filteredItems = new Vector<Item> ();
+			allItems = new ItemTable ();
+			filteredRows = new int [0];
 		}		
 
 		/**
@@ -750,13 +771,13 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		@Override
 		public int getCount ()
 		{
-			return filteredItems.size ();
+			return filteredRows.length;
 		}
 		
 		@Override
 		public Item getItem (int position)
 		{
-			return filteredItems.get (position);
+			return allItems.get (filteredRows [position]);
 		}
 		
 		@Override
@@ -771,18 +792,27 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		public void clear ()
 		{
 			allItems.clear ();
-			filteredItems.clear ();
+			filteredRows = new int [0];
 			notifyDataSetChanged ();
 		}
 
 		/**
-		 * Appends the items to the list. Afterward the list is sorted again.
+		 * Appends the items to the list. Only the new items are
+		 * filtered and sorted, and then they are merged into the
+		 * rows already displayed.
 		 * @param newItems the additional items to show
 		 */
 		public void addAll (List<Item> newItems)
 		{
+			int from, rows [];
+			
+			from = allItems.size ();
 			allItems.addAll (newItems);
-			invalidate ();
+			
+			rows = isd != null ? isd.filter (allItems, from) : allItems.getRows (from);
+			rows = allItems.sortRows (rows, cmp);
+			filteredRows = allItems.merge (filteredRows, rows, cmp);
+			notifyDataSetChanged ();
 		}
 		
 		/**
@@ -790,8 +820,10 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		 */
 		private void invalidate ()
 		{		
-			filteredItems = isd != null ? isd.filter (allItems) : allItems;  
-			Collections.sort (filteredItems, cmp);
+			int rows [];
+			
+			rows = isd != null ? isd.filter (allItems) : allItems.getRows ();  
+			filteredRows = allItems.sortRows (rows, cmp);
 			notifyDataSetChanged ();
 		}
 		
@@ -1159,6 +1191,9 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 	/// The radical images cache
 	RadicalImages rimg;
 	
+	/// The prefetcher of the levels next to the current one
+	LevelPrefetcher prefetcher;
+	
 	/* ---------- Sort/filter stuff ---------- */
 
 	/// The popup menu listener
@@ -1223,6 +1258,8 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		super.onAttach (main);
 		
 		this.main = (MainActivity) main;
+		rimg.setSize (main.getResources ().getDimensionPixelSize (R.dimen.m_glyph));
+		rimg.openCache (main.getApplicationContext ());
 
 		this.main.register (this);
 	}
@@ -1242,7 +1279,9 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		setRetainInstance (true);
 
 		nof = new NoFilter (this);
-		levelf = new LevelFilter (this);
+		prefetcher = new LevelPrefetcher (main.getApplicationContext (), rimg);
+		prefetcher.setLevels (levels);
+		levelf = new LevelFilter (this, prefetcher);
 		criticalf = new CriticalFilter (this);
 		unlockf = new UnlockFilter (this);
 		currentFilter = levelf;
@@ -1407,6 +1446,8 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 	public void refreshComplete (DashboardData dd)
 	{				
 		levels = dd.level;
+		if (prefetcher != null)
+			prefetcher.setLevels (levels);
 		if (currentLevel < 0 && isResumed ())
 			redrawAll ();
 	}
@@ -1425,6 +1466,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		
 		nof.stopTask ();
 		levelf.stopTask ();
+		prefetcher.cancel ();
 		criticalf.stopTask ();
 		unlockf.stopTask ();
 		isd = null;
@@ -1610,10 +1652,9 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 	}
 	
 	@Override
-	public void loadRadicalImage (Radical r)
-		throws IOException
+	public RadicalImages.Batch loadRadicalImages (List<Radical> l)
 	{
-		rimg.getImage (getActivity (), r);
+		return rimg.loadAll (main.getApplicationContext (), l);
 	}
 	
 	/**
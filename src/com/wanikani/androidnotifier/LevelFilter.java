@@ -41,6 +41,8 @@ import com.wanikani.wklib.Radical;
  * <li>One single chunk, containing all the kanji
  * <li>One single chunk, containing all the vocab words
  * </ul>
+ * When a level has been loaded, the neighbouring ones are prefetched
+ * in background, so that switching to them is usually immediate.
  */
 public class LevelFilter implements Filter {
 	
@@ -84,6 +86,7 @@ public class LevelFilter implements Filter {
 		protected Boolean doInBackground (Void... v)
 		{
 			ItemLibrary<Item> lib;
+			RadicalImages.Batch batch;
 			List<Radical> imgrad;
 			Radical rad;
 			Iterator<Item> i;
@@ -107,15 +110,14 @@ public class LevelFilter implements Filter {
 				ok = false;
 			}
 			
-			for (Radical r : imgrad) {
-				try {
-					itemf.loadRadicalImage (r);
-				} catch (IOException e) {
-					r.character = "?";
+			batch = itemf.loadRadicalImages (imgrad);
+			while ((rad = batch.next ()) != null) {
+				if (!batch.isLoaded (rad)) {
+					rad.character = "?";
 					ok = false;
-				}				
-				lpublishProgress (new ItemLibrary<Item> (r));
-			}	
+				}
+				lpublishProgress (new ItemLibrary<Item> (rad));
+			}
 			
 			lib = new ItemLibrary<Item> ();
 			try {
@@ -167,7 +169,7 @@ public class LevelFilter implements Filter {
 		@Override
 		protected void onPostExecute (Boolean ok)
 		{
-			done (this, allItems, level, ok);
+			done (this, allItems, conn, level, ok);
 		}
 
 		/**
@@ -197,13 +199,18 @@ public class LevelFilter implements Filter {
 	/// The task currently going on
 	Task task;
 	
+	/// The prefetcher of neighbouring levels
+	LevelPrefetcher prefetcher;
+	
 	/**
 	 * Constructor.
 	 * @param itemf the fragment that will be notified
+	 * @param prefetcher the prefetcher of neighbouring levels
 	 */
-	public LevelFilter (Filter.Callback itemf)	
+	public LevelFilter (Filter.Callback itemf, LevelPrefetcher prefetcher)	
 	{
 		this.itemf = itemf;
+		this.prefetcher = prefetcher;
 		
 		pending = new Hashtable<Integer, Task> ();
 	}
@@ -224,6 +231,9 @@ public class LevelFilter implements Filter {
 	
 		ptask = pending.get (level);
 		
+		/* Don't compete with the level the user is waiting for */
+		prefetcher.cancel ();
+		
 		itemf.enableSorting (true, true, true);
 		if (ptask == null) {
 			itemf.clearData (this);
@@ -254,17 +264,23 @@ public class LevelFilter implements Filter {
 	/**
 	 * Called by the task when no more data is available.
 	 * We store the list of items into the cache and stop the spinner.
+	 * If this is still the level being displayed, we start prefetching
+	 * its neighbours.
 	 * @param stask the source task
 	 * @param items all the itmes published
+	 * @param conn the connection
 	 * @param ok set if everything went smoothly
 	 */
-	private void done (Task stask, List<Item> allItems, int level, boolean ok)
+	private void done (Task stask, List<Item> allItems, Connection conn, 
+					   int level, boolean ok)
 	{
 		pending.remove (level);
 		
 		if (stask == task) {
 			itemf.noMoreData (this, ok);
 			itemf.selectLevel (this, level, false);
+			if (ok)
+				prefetcher.schedule (conn, level);
 		}
 	}
 	
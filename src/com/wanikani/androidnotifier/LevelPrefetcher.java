@@ -0,0 +1,216 @@
+package com.wanikani.androidnotifier;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.wanikani.wklib.Connection;
+import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.Radical;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Warms the items cache with the levels next to the one being displayed,
+ * so that when the user taps on them, the {@link LevelFilter} finds
+ * everything in the cache.
+ * The job is carried out by a low priority background thread, that
+ * can be cancelled at any time (the request being performed, if any,
+ * is allowed to complete).
+ * Prefetching is skipped when the user preferences forbid it on
+ * the current network, or when the daily traffic generated by
+ * prefetching exceeds {@link #DAILY_BUDGET}.
+ */
+public class LevelPrefetcher {
+
+	/**
+	 * The background thread.
+	 */
+	private class Job extends Thread {
+
+		/// The connection
+		Connection conn;
+
+		/// The level being displayed
+		int level;
+
+		/// Set when this job must stop
+		volatile boolean cancelled;
+
+		/**
+		 * Constructor.
+		 * @param conn the connection
+		 * @param level the level being displayed
+		 */
+		public Job (Connection conn, int level)
+		{
+			super ("level-prefetch");
+
+			this.conn = conn;
+			this.level = level;
+
+			setDaemon (true);
+		}
+
+		@Override
+		public void run ()
+		{
+			Connection.Meter meter;
+			int i, l;
+
+			Process.setThreadPriority (Process.THREAD_PRIORITY_LOWEST);
+
+			meter = MeterSpec.T.ITEMS_PREFETCH.get (ctxt);
+			/* Closest levels first, alternating the next and the previous ones */
+			for (i = 1; i <= 2 * DISTANCE && !cancelled; i++) {
+				l = (i & 1) != 0 ? level + (i + 1) / 2 : level - i / 2;
+				if (l < 1 || l > levels)
+					continue;
+
+				if (!allowed ())
+					break;
+
+				try {
+					prefetch (meter, l);
+				} catch (IOException e) {
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Loads a level. Radicals images are loaded as well.
+		 * @param meter the meter
+		 * @param l the level
+		 * @throws IOException if a request fails
+		 */
+		private void prefetch (Connection.Meter meter, int l)
+			throws IOException
+		{
+			ItemLibrary<Radical> rlib;
+
+			rlib = conn.getRadicals (meter, l);
+			for (Radical r : rlib.list) {
+				if (cancelled)
+					return;
+				if (r.character == null)
+					rimg.getImage (ctxt, r);
+			}
+
+			if (!cancelled)
+				conn.getKanji (meter, l);
+			if (!cancelled)
+				conn.getVocabulary (meter, l);
+		}
+	}
+
+	/// Number of levels to prefetch above and below the current one
+	public static final int DISTANCE = 2;
+
+	/// Maximum daily average of prefetch traffic (bytes)
+	public static final long DAILY_BUDGET = 2 * 1024 * 1024;
+
+	/// The application context
+	private Context ctxt;
+
+	/// The radical images cache
+	private RadicalImages rimg;
+
+	/// The job currently running, if any
+	private Job job;
+
+	/// The highest level
+	private volatile int levels;
+
+	/**
+	 * Constructor.
+	 * @param ctxt the application context
+	 * @param rimg the radical images cache
+	 */
+	public LevelPrefetcher (Context ctxt, RadicalImages rimg)
+	{
+		this.ctxt = ctxt;
+		this.rimg = rimg;
+	}
+
+	/**
+	 * Sets the highest level that can be prefetched, i.e. the user's level.
+	 * Until this method is called, nothing is prefetched.
+	 * @param levels the highest level
+	 */
+	public void setLevels (int levels)
+	{
+		this.levels = levels;
+	}
+
+	/**
+	 * Starts prefetching the levels around a given one. Any previous
+	 * job is cancelled.
+	 * @param conn the connection
+	 * @param level the level being displayed
+	 */
+	public void schedule (Connection conn, int level)
+	{
+		cancel ();
+
+		if (levels <= 0 || !allowed ())
+			return;
+
+		job = new Job (conn, level);
+		job.start ();
+	}
+
+	/**
+	 * Stops the job currently running, if any.
+	 */
+	public void cancel ()
+	{
+		if (job != null) {
+			job.cancelled = true;
+			job = null;
+		}
+	}
+
+	/**
+	 * Tells whether prefetching is allowed right now, according to
+	 * user preferences, network type and traffic budget.
+	 * @return <code>true</code> if we can go on
+	 */
+	private boolean allowed ()
+	{
+		MeterSpec.Counter counter;
+
+		switch (SettingsActivity.getItemsPrefetch (ctxt)) {
+		case NEVER:
+			return false;
+
+		case WIFI:
+			if (MeterSpec.isMobile (ctxt))
+				return false;
+			break;
+
+		case ALWAYS:
+			break;
+		}
+
+		counter = MeterSpec.T.ITEMS_PREFETCH.getCounter (ctxt, MeterSpec.AmountType.AVG_DAY);
+
+		return counter.total () < DAILY_BUDGET;
+	}
+}
@@ -39,6 +39,8 @@ import android.widget.TextView;
 
 import com.wanikani.wklib.AuthenticationException;
 import com.wanikani.wklib.Connection;
+import com.wanikani.wklib.DiskItemsCache;
+import com.wanikani.wklib.FetchExecutor;
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.ItemsCache;
@@ -259,6 +261,9 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		/// The default "turtle" avatar
 		Bitmap defAvatar;
 		
+		/// The optional data requests, issued in parallel with the dashboard ones
+		OptionalRequests oreqs;
+		
 		/**
 		 * Called before starting the task, inside the activity thread.
 		 */
@@ -289,6 +294,10 @@ public class MainActivity extends FragmentActivity implements Runnable {
 
 			size = getResources ().getDimensionPixelSize (R.dimen.m_avatar_size);
 			meter = MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this);
+			
+			/* Optional data does not depend on the study queue, so we start
+			 * fetching it right now */
+			oreqs = new OptionalRequests (conn [0]);
 			try {
 				sq = conn [0].getStudyQueue (meter);
 				/* getUserInformation should be called after at least one
@@ -303,11 +312,23 @@ public class MainActivity extends FragmentActivity implements Runnable {
 				else
 					restoreAvatar (dd);
 			} catch (IOException e) {
+				oreqs.cancel ();
 				dd = new DashboardData (e);
 			}
 			
 			return dd;
 		}	
+		
+		/**
+		 * Called when the task is cancelled. Drops the optional data requests
+		 * that are still queued.
+		 */
+		@Override
+		protected void onCancelled ()
+		{
+			if (oreqs != null)
+				oreqs.cancel ();
+		}
 						
 		/**
 		 * Called at completion of the job, inside the Activity thread.
@@ -323,7 +344,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 				
 				refreshComplete (dd, true);
 				
-				new RefreshTaskPartII ().execute (conn);
+				new RefreshTaskPartII (oreqs).execute (conn);
 			} catch (AuthenticationException e) {
 				error (R.string.status_msg_unauthorized);
 			} catch (IOException e) {
@@ -332,12 +353,130 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		}
 	}
 	
+	/**
+	 * The requests needed to fill {@link DashboardData.OptionalData}.
+	 * They are independent from each other (and from the study queue),
+	 * so they are issued concurrently through {@link Connection#fetchAll}.
+	 */
+	private class OptionalRequests {
+		
+		/// SRS distribution request
+		FetchExecutor.Request<SRSDistribution> srs;
+		
+		/// Level progression request
+		FetchExecutor.Request<LevelProgression> lp;
+		
+		/// Critical items request
+		FetchExecutor.Request<ItemLibrary<Item>> critical;
+		
+		/// The batch
+		FetchExecutor.Batch batch;
+		
+		/**
+		 * Constructor. Issues the requests.
+		 * @param conn the connection
+		 */
+		public OptionalRequests (Connection conn)
+		{
+			srs = new FetchExecutor.Request<SRSDistribution> () {
+				public SRSDistribution fetch (Connection conn)
+					throws IOException
+				{
+					return conn.getSRSDistribution (MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
+				}
+			};
+			
+			lp = new FetchExecutor.Request<LevelProgression> () {
+				public LevelProgression fetch (Connection conn)
+					throws IOException
+				{
+					return conn.getLevelProgression (MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
+				}
+			};
+			
+			critical = new FetchExecutor.Request<ItemLibrary<Item>> () {
+				public ItemLibrary<Item> fetch (Connection conn)
+					throws IOException
+				{
+					return conn.getCriticalItems (MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
+				}
+			};
+			
+			batch = conn.fetchAll (srs, lp, critical);
+		}
+		
+		/**
+		 * Waits for the next request to complete, and stores its
+		 * outcome into the optional data.
+		 * @param od the optional data to update
+		 * @return <code>false</code> if there are no more requests
+		 */
+		public boolean next (DashboardData.OptionalData od)
+			throws InterruptedException
+		{
+			FetchExecutor.Request<?> req;
+			
+			req = batch.next ();
+			if (req == null)
+				return false;
+			
+			if (req == srs) {
+				try {
+					od.srs = batch.get (srs);
+					od.srsStatus = DashboardData.OptionalDataStatus.RETRIEVED;
+				} catch (IOException e) {
+					od.srsStatus = DashboardData.OptionalDataStatus.FAILED;
+				}
+			} else if (req == lp) {
+				try {
+					od.lp = batch.get (lp);
+					od.lpStatus = DashboardData.OptionalDataStatus.RETRIEVED;
+				} catch (IOException e) {
+					od.lpStatus = DashboardData.OptionalDataStatus.FAILED;
+				}
+			} else if (req == critical) {
+				try {
+					od.criticalItems = batch.get (critical).list.size ();
+					od.ciStatus = DashboardData.OptionalDataStatus.RETRIEVED;
+				} catch (IOException e) {
+					od.ciStatus = DashboardData.OptionalDataStatus.FAILED;
+				}				
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Cancels the requests that have not started yet
+		 */
+		public void cancel ()
+		{
+			batch.cancel ();
+		}
+	}
+	
 	/**
 	 * A task that gets called whenever the stats need to be refreshed, part II.
-	 * This task retrieves all the data that is not needed to display the dashboard,
-	 * so it can be run after the splash screen disappears (and the startup is faster). 
+	 * This task collects all the data that is not needed to display the dashboard,
+	 * so it can be shown after the splash screen disappears (and the startup is faster).
+	 * The requests may have been issued by {@link RefreshTask}, in parallel
+	 * with the study queue. Results are published as soon as each of them completes. 
 	 */
-	private class RefreshTaskPartII extends AsyncTask<Connection, Void, DashboardData.OptionalData> {
+	private class RefreshTaskPartII 
+		extends AsyncTask<Connection, DashboardData.OptionalData, DashboardData.OptionalData> {
+		
+		/// The requests
+		OptionalRequests oreqs;
+		
+		/**
+		 * Constructor.
+		 * @param oreqs requests that have already been issued, or <code>null</code>
+		 * 	if this task should issue them
+		 */
+		public RefreshTaskPartII (OptionalRequests oreqs)
+		{
+			this.oreqs = oreqs;
+		}
 					
 		/**
 		 * Called before starting the task, inside the activity thread.
@@ -349,8 +488,8 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		}
 		
 		/**
-		 * Performs the real job, by using the provided
-		 * connection to obtain the SRS distribution and the LevelProgression.
+		 * Performs the real job, by collecting the SRS distribution, 
+		 * the LevelProgression and the critical items as they complete.
 		 * If any operation goes wrong, the data is simply not retrieved (this
 		 * is meant to be data of lesser importance), so it should be ok anyway.
 		 * 	@param conn a connection to the WaniKani API site
@@ -358,40 +497,35 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		@Override
 		protected DashboardData.OptionalData doInBackground (Connection... conn)
 		{
-			DashboardData.OptionalDataStatus srsStatus, lpStatus, ciStatus;
-			SRSDistribution srs;
-			LevelProgression lp;
-			ItemLibrary<Item> critical;
-			int cis;
+			DashboardData.OptionalData od;
 			
+			if (oreqs == null)
+				oreqs = new OptionalRequests (conn [0]);
+			
+			od = new DashboardData.OptionalData ();
 			try {
-				srs = conn [0].getSRSDistribution(MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
-				srsStatus = DashboardData.OptionalDataStatus.RETRIEVED;
-			} catch (IOException e) {
-				srs = null;
-				srsStatus = DashboardData.OptionalDataStatus.FAILED;
-			}
-
-			try {
-				lp = conn [0].getLevelProgression (MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
-				lpStatus = DashboardData.OptionalDataStatus.RETRIEVED;
-			} catch (IOException e) {
-				lp = null;
-				lpStatus = DashboardData.OptionalDataStatus.FAILED;
-			}
-
-			try {
-				critical = conn [0].getCriticalItems (MeterSpec.T.DASHBOARD_REFRESH.get (MainActivity.this));
-				ciStatus = DashboardData.OptionalDataStatus.RETRIEVED;
-				cis = critical.list.size ();
-			} catch (IOException e) {
-				ciStatus = DashboardData.OptionalDataStatus.FAILED;
-				cis = 0;
+				while (oreqs.next (od))
+					publishProgress (new DashboardData.OptionalData (od));
+			} catch (InterruptedException e) {
+				oreqs.cancel ();
 			}
 			
-			return new DashboardData.OptionalData (srs, srsStatus, lp, lpStatus, 
-												   cis, ciStatus);
+			return od;
 		}	
+		
+		/**
+		 * Called when a request completes, inside the Activity thread.
+		 * Updates the dashboard with the partial data.
+		 * 	@param od the partial data
+		 */
+		@Override
+		protected void onProgressUpdate (DashboardData.OptionalData... od)
+		{
+			if (dd != null) {
+				dd.setOptionalData (od [0]);
+				refreshComplete (dd, true);
+			}
+		}
 						
 		/**
 		 * Called at completion of the job, inside the Activity thread.
@@ -472,6 +606,11 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	 */
 	private static final String ITEMS_CACHE = PREFIX + "ITEMS_CACHE";
 	
+	/**
+	 * Subdirectory containing the persistent tier of the items cache
+	 */
+	private static final String ITEMS_CACHE_DIR = "itemscache";
+	
 	/**
 	 * The key stored into the bundle to keep track of the current tab
 	 */
@@ -577,6 +716,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 
 	    /* Must be placed first, because fragments need this early */
 	    conn = new Connection (SettingsActivity.getLogin (this));
+	    conn.setStore (getItemsStore (this));
 
 	    if (dsf == null)
 	    	dsf = new DashboardStatsFragment ();
@@ -603,7 +743,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	    	dd = new DashboardData (bundle);
 			pager.setCurrentItem (bundle.getInt (CURRENT_TAB));
 			try {
-				conn.cache = (ItemsCache) bundle.getSerializable (ITEMS_CACHE);
+				conn.setCache ((ItemsCache) bundle.getSerializable (ITEMS_CACHE));
 			} catch (Throwable t) {
 				/* In case serialization fails (e.g. version mismatch during upgrade) */
 			}
@@ -863,6 +1003,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	private void updateCredentials (UserLogin login)
 	{
 		conn = new Connection (login);
+		conn.setStore (getItemsStore (this));
 		
 		refresh (Tab.RefreshType.FULL);
 	}
@@ -901,7 +1042,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	 */
 	private void refreshOptional ()
 	{
-			new RefreshTaskPartII ().execute (conn);			
+			new RefreshTaskPartII (null).execute (conn);			
 	}
 
 	/**
@@ -1238,6 +1379,18 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	{
 		return conn;
 	}
+	
+	/**
+	 * Returns the persistent tier of the items cache, so that items
+	 * survive process death.
+	 * @param ctxt the context
+	 * @return the store
+	 */
+	public static DiskItemsCache getItemsStore (Context ctxt)
+	{
+		return new DiskItemsCache (ctxt.getDir (ITEMS_CACHE_DIR, Context.MODE_PRIVATE),
+								   SettingsActivity.getItemsCacheTTL (ctxt));
+	}
 
 	/**
 	 * Tells whether if a given tab is intercepting scroll events
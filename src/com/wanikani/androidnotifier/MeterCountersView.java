@@ -46,7 +46,7 @@ public class MeterCountersView extends LinearLayout {
 	
 	private MeterSpec.Counter data;
 	
-	private Binding mobile, wifi, unknown;
+	private Binding mobile, wifi, unknown, saved;
 	
 	private View tdiv;
 	
@@ -65,6 +65,7 @@ public class MeterCountersView extends LinearLayout {
 		mobile = new Binding (R.id.mc_d_mobile, R.id.mc_mobile);
 		wifi = new Binding (R.id.mc_d_wifi, R.id.mc_wifi);
 		unknown = new Binding (R.id.mc_d_unknown, R.id.mc_unknown);
+		saved = new Binding (R.id.mc_d_saved, R.id.mc_saved);
 		
 		a = ctxt.obtainStyledAttributes (attrs, R.styleable.PieChart);
 		
@@ -83,6 +84,18 @@ public class MeterCountersView extends LinearLayout {
 	}
 	
 	public void setData (MeterSpec.Counter data)
+	{
+		setData (data, new MeterSpec.Counter (data.at, 0, 0, 0));
+	}
+	
+	/**
+	 * Updates the counters.
+	 * @param data the downloaded data
+	 * @param savedData the data that did not need to be downloaded, 
+	 * 	because the server answered <tt>304 Not Modified</tt>. It is shown
+	 * 	as a single total, only if not empty 
+	 */
+	public void setData (MeterSpec.Counter data, MeterSpec.Counter savedData)
 	{
 		boolean empty;
 		
@@ -97,5 +110,6 @@ public class MeterCountersView extends LinearLayout {
 		mobile.update (data.at, data.mobile, empty);
 		wifi.update (data.at, data.wifi, false);
 		unknown.update (data.at, data.unknown, false);
+		saved.update (data.at, savedData.total (), false);
 	}
 }
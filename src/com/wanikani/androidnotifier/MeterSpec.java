@@ -22,6 +22,8 @@ public class MeterSpec implements Connection.Meter {
 			
 		ITEMS,
 
+		ITEMS_PREFETCH,
+
 		RECONSTRUCT_DIALOG,
 
 		NOTIFY_TIMEOUT,
@@ -51,6 +53,7 @@ public class MeterSpec implements Connection.Meter {
 				return new T [] { 
 					DASHBOARD_REFRESH,
 					ITEMS,
+					ITEMS_PREFETCH,
 					RECONSTRUCT_DIALOG,
 					OTHER_STATS,
 					MORE_STATS
@@ -86,7 +89,12 @@ public class MeterSpec implements Connection.Meter {
 		
 		public Counter getCounter (Context ctxt, AmountType at)
 		{
-			return instantiate (ctxt).getCounter (at);
+			return instantiate (ctxt).getCounter (at, false);
+		}
+		
+		public Counter getSavedCounter (Context ctxt, AmountType at)
+		{
+			return instantiate (ctxt).getCounter (at, true);
 		}
 		
 		protected MeterSpec instantiate (Context ctxt)
@@ -167,12 +175,16 @@ public class MeterSpec implements Connection.Meter {
 	
 	private int count;
 	
+	private int saved;
+	
 	private static final String CTAG_UNKNOWN = "u."; 
 
 	private static final String CTAG_MOBILE = "m.";
 	
 	private static final String CTAG_WIFI = "w.";
 	
+	private static final String STAG = "saved.";
+	
 	private static Object mutex = new Object ();
 
 	private MeterSpec (Context ctxt, T type)
@@ -188,6 +200,11 @@ public class MeterSpec implements Connection.Meter {
 		count += bytes;
 	}
 	
+	public void saved (int bytes)
+	{
+		saved += bytes;
+	}
+	
 	public static Date getLastReset (SharedPreferences prefs)
 	{
 		synchronized (mutex) {
@@ -200,10 +217,12 @@ public class MeterSpec implements Connection.Meter {
 	
 	public void sync ()
 	{
-		String key;
+		String key, skey, ctag;
 		Editor e;
 		
-		key = getKey (type, connectivity ());
+		ctag = connectivity ();
+		key = getKey (type, ctag);
+		skey = getKey (type, STAG + ctag);
 		
 		synchronized (mutex) {
 			e = prefs.edit ();
@@ -211,9 +230,32 @@ public class MeterSpec implements Connection.Meter {
 				e.putLong (START_TIME, System.currentTimeMillis ());
 			
 			e.putLong (key, prefs.getLong (key, 0) + count);
+			if (saved > 0)
+				e.putLong (skey, prefs.getLong (skey, 0) + saved);
 			e.commit ();
 		}
 		count = 0;
+		saved = 0;
+	}
+	
+	/**
+	 * Tells whether the active network is a mobile one.
+	 * @param ctxt the context
+	 * @return <code>true</code> if we are on mobile data, or if
+	 * 	connectivity is unknown
+	 */
+	public static boolean isMobile (Context ctxt)
+	{
+		ConnectivityManager cmgr;
+		NetworkInfo info;
+		
+		cmgr = (ConnectivityManager) ctxt.getSystemService (Context.CONNECTIVITY_SERVICE);
+		if (cmgr == null)
+			return true;
+		
+		info = cmgr.getActiveNetworkInfo ();
+		
+		return info == null || info.getType () == ConnectivityManager.TYPE_MOBILE;
 	}
 	
 	private static String getKey (T type, String connectivity)
@@ -237,7 +279,7 @@ public class MeterSpec implements Connection.Meter {
 			return CTAG_WIFI;
 	}
 
-	private static void addValue (SharedPreferences prefs, T t, Counter counter)
+	private static void addValue (SharedPreferences prefs, T t, Counter counter, String prefix)
 	{
 		T components [];
 		int i;
@@ -245,15 +287,15 @@ public class MeterSpec implements Connection.Meter {
 		components = t.getComponents ();
 		if (components != null) {
 			for (i = 0; i < components.length; i++)
-				addValue (prefs, components [i], counter);			
+				addValue (prefs, components [i], counter, prefix);			
 		} else {
-			counter.mobile += prefs.getLong (getKey (t, CTAG_MOBILE), 0);
-			counter.wifi += prefs.getLong (getKey (t, CTAG_WIFI), 0);
-			counter.unknown += prefs.getLong (getKey (t, CTAG_UNKNOWN), 0);
+			counter.mobile += prefs.getLong (getKey (t, prefix + CTAG_MOBILE), 0);
+			counter.wifi += prefs.getLong (getKey (t, prefix + CTAG_WIFI), 0);
+			counter.unknown += prefs.getLong (getKey (t, prefix + CTAG_UNKNOWN), 0);
 		}
 	}
 		
-	private Counter getCounter (AmountType at)
+	private Counter getCounter (AmountType at, boolean saved)
 	{
 		Counter ans;
 		Date date;
@@ -261,7 +303,7 @@ public class MeterSpec implements Connection.Meter {
 		
 		ans = new Counter (at, 0, 0, 0);
 		synchronized (mutex) {
-			addValue (prefs, type, ans);
+			addValue (prefs, type, ans, saved ? STAG : "");
 			date = getLastReset (prefs); 
 		}
 		ratio = at.getRatio (System.currentTimeMillis () - date.getTime ());
@@ -283,6 +325,9 @@ public class MeterSpec implements Connection.Meter {
 				e.putLong (getKey (type, CTAG_MOBILE), 0);
 				e.putLong (getKey (type, CTAG_WIFI), 0);
 				e.putLong (getKey (type, CTAG_UNKNOWN), 0);
+				e.putLong (getKey (type, STAG + CTAG_MOBILE), 0);
+				e.putLong (getKey (type, STAG + CTAG_WIFI), 0);
+				e.putLong (getKey (type, STAG + CTAG_UNKNOWN), 0);
 			}
 			e.commit ();
 		}
@@ -136,7 +136,8 @@ public class MetersActivity extends Activity {
 		at = getAmountType ();
 		
 		for (Map.Entry<MeterSpec.T, MeterCountersView> e : cviews.entrySet ())
-			e.getValue ().setData (e.getKey ().getCounter (this, at));
+			e.getValue ().setData (e.getKey ().getCounter (this, at),
+								   e.getKey ().getSavedCounter (this, at));
 	}
 
 }
@@ -10,7 +10,10 @@ import android.os.AsyncTask;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.Kanji;
+import com.wanikani.wklib.LevelBatches;
 import com.wanikani.wklib.Radical;
+import com.wanikani.wklib.Vocabulary;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -70,7 +73,10 @@ public class NoFilter implements Filter {
 		@Override
 		protected Boolean doInBackground (Void... v)
 		{
+			LevelBatches<Vocabulary> vbatches;
+			LevelBatches<Kanji> kbatches;
 			ItemLibrary<Item> lib;
+			RadicalImages.Batch batch;
 			List<Radical> imgrad;
 			Radical rad;
 			Iterator<Item> i;
@@ -94,33 +100,32 @@ public class NoFilter implements Filter {
 				ok = false;
 			}
 			
-			lib = new ItemLibrary<Item> ();
 			try {
-				lib.add (conn.getKanji (meter));
-				lpublishProgress (lib);
+				kbatches = conn.getKanjiBatches (meter);
+				while (kbatches.hasNext ())
+					lpublishProgress (new ItemLibrary<Item> (kbatches.next ()));
 			} catch (IOException e) {
 				ok = false;
 			}
 			
-			lib = new ItemLibrary<Item> ();
 			try {
-				lib.add (conn.getVocabulary (meter));
-				lpublishProgress (lib);
+				vbatches = conn.getVocabularyBatches (meter);
+				while (vbatches.hasNext ())
+					lpublishProgress (new ItemLibrary<Item> (vbatches.next ()));
 			} catch (IOException e) {
 				ok = false;
 			}			
 
 			/* Moved at the end, because I want all the regular items to be
 			 * shown as soon as possible (img radicals can be quite a few) */
-			for (Radical r : imgrad) {
-				try {
-					itemf.loadRadicalImage (r);
-				} catch (IOException e) {
-					r.character = "?";
+			batch = itemf.loadRadicalImages (imgrad);
+			while ((rad = batch.next ()) != null) {
+				if (!batch.isLoaded (rad)) {
+					rad.character = "?";
 					ok = false;
-				}				
-				lpublishProgress (new ItemLibrary<Item> (r));
-			}	
+				}
+				lpublishProgress (new ItemLibrary<Item> (rad));
+			}
 			
 			return ok;
 		}	
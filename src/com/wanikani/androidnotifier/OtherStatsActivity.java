@@ -29,6 +29,7 @@ import com.wanikani.wklib.Item;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.ItemsCache;
 import com.wanikani.wklib.Kanji;
+import com.wanikani.wklib.LevelBatches;
 import com.wanikani.wklib.Radical;
 import com.wanikani.wklib.SRSLevel;
 import com.wanikani.wklib.Vocabulary;
@@ -147,8 +148,8 @@ public class OtherStatsActivity extends Activity {
 		public void newKanji (ItemLibrary<Kanji> kanji)
 		{
 			for (Kanji k : kanji.list) {
-				if (k.stats != null && library.contains (k.character)) {
-					slds.get (k.stats.srs).value++;
+				if (k.hasStats () && library.contains (k.character)) {
+					slds.get (k.getSRS ()).value++;
 					rds.value--;
 				}
 			}
@@ -264,8 +265,8 @@ public class OtherStatsActivity extends Activity {
 
 		private void put (Item i)
 		{
-			if (i.stats != null)	// stats is null for loced items
-				bars.get (i.level - 1).samples.get (imap.get (i.stats.srs)).value++;
+			if (i.hasStats ())	// stats is null for loced items
+				bars.get (i.level - 1).samples.get (imap.get (i.getSRS ())).value++;
 		}
 						
 	}
@@ -291,9 +292,6 @@ public class OtherStatsActivity extends Activity {
 		/// Progress bar
 		private ProgressBar pb;
 		
-		/// Number of levels to load at once
-		private static final int BUNCH_SIZE = 5;
-		
 		/// The job type
 		private Job job;
 		
@@ -324,8 +322,9 @@ public class OtherStatsActivity extends Activity {
 		{
 			ItemLibrary<Radical> rlib;
 			ItemLibrary<Kanji> klib;
+			LevelBatches<Vocabulary> vbatches;
 			ItemLibrary<Vocabulary> vlib;
-			int i, j, levels, bunch [];
+			int done, levels;
 
 			try {
 				levels = conn.getUserInformation (meter).level;
@@ -363,15 +362,14 @@ public class OtherStatsActivity extends Activity {
 			
 			try {
 				if (types.contains (Item.Type.VOCABULARY)) {
-					i = 1;
-					while (i <= levels) {
-						bunch = new int [Math.min (BUNCH_SIZE, levels - i + 1)];
-						for (j = 0; j < BUNCH_SIZE && i <= levels; j++)
-							bunch [j] = i++;
-						vlib = conn.getVocabulary (meter, bunch);
+					done = 0;
+					vbatches = conn.getVocabularyBatches (meter);
+					while (vbatches.hasNext ()) {
+						done += vbatches.nextLevels ().length;
+						vlib = vbatches.next ();
 						for (ItemListener l : listeners)
 							l.newVocab (vlib);
-						publishProgress ((100 * (i - 1)) / (levels + 2));
+						publishProgress ((100 * done) / (levels + 2));
 					}
 				}
 			} catch (IOException e) {
@@ -519,6 +517,7 @@ public class OtherStatsActivity extends Activity {
 		levelsChart.setVisibility (View.GONE);
 
 		conn = new Connection (SettingsActivity.getLogin (this));
+		conn.setStore (MainActivity.getItemsStore (this));
 		if (cache == null)
 			cache = new ItemsCache ();
 		
@@ -0,0 +1,356 @@
+package com.wanikani.androidnotifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The L2 cache of {@link RadicalImages}: a single file containing the
+ * images of all the radicals, as they were downloaded (i.e. PNG data
+ * is never recompressed).
+ * The file starts with a header, followed by a sequence of records, each
+ * one made of a small index header (key length, data length and checksum),
+ * the key, and the image data. The index is rebuilt by scanning the
+ * record headers when the pack is opened.
+ * <p>
+ * If the process dies while a record is being written, the region it
+ * reserved is left behind as a hole, and records written later by other
+ * threads may follow it. The scan steps over such holes: a record with
+ * a valid header but a wrong checksum is skipped as a whole, and a run
+ * of zero bytes (nothing was written at all) is skipped up to the
+ * next record. Since keys are shorter than 256 bytes, each record
+ * starts with exactly one zero byte, so the next record begins right
+ * before the first non-zero byte. Anything else (i.e. a torn header)
+ * cannot be resynchronized, so the rest of the file is discarded.
+ * <p>
+ * The file is memory-mapped, so lookups return a slice of the mapping,
+ * without copying or opening any stream. The pack is append-only: writers
+ * just reserve a region at the end of the file and fill it with
+ * a positional write, so they do not need to wait for each other.
+ * There is just one instance per process (see {@link #get(Context, String)}),
+ * since writers need to agree on the end of the file.
+ */
+public class RadicalImagePack {
+
+	/**
+	 * Location of an image in the file.
+	 */
+	private static class Slot {
+
+		/// Offset of the image data
+		int offset;
+
+		/// Image length
+		int length;
+
+		public Slot (int offset, int length)
+		{
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/// File magic number
+	private static final int MAGIC = 0x574b5250;
+
+	/// Format version. Must be increased each time the format changes
+	private static final int VERSION = 1;
+
+	/// File header size (magic and version)
+	private static final int HEADER_SIZE = 8;
+
+	/// Record header size (key length, data length and data checksum)
+	private static final int RECORD_HEADER_SIZE = 10;
+
+	/// Maximum key length, in bytes
+	private static final int MAX_KEY_LENGTH = 0xFF;
+
+	/// Placeholder of a record that is still being written
+	private static final Slot PENDING = new Slot (-1, 0);
+
+	/// Name of the pack file
+	private static final String FILE_NAME = "pack";
+
+	/// The instance
+	private static RadicalImagePack instance;
+
+	/// The file
+	private RandomAccessFile raf;
+
+	/// The file channel
+	private FileChannel channel;
+
+	/// Radical to image location
+	private ConcurrentMap<String, Slot> index;
+
+	/// End of the last reserved record
+	private AtomicLong end;
+
+	/// The current mapping. May not cover the last records
+	private volatile MappedByteBuffer map;
+
+	/**
+	 * Returns the pack, opening it if needed.
+	 * @param ctxt a context
+	 * @param dir the directory containing the pack. If the pack needs
+	 * 	to be created, any other file in this directory is removed
+	 * @return the pack
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static synchronized RadicalImagePack get (Context ctxt, String dir)
+		throws IOException
+	{
+		if (instance == null)
+			instance = new RadicalImagePack (ctxt.getDir (dir, Context.MODE_PRIVATE));
+
+		return instance;
+	}
+
+	/**
+	 * Constructor.
+	 * @param dir the directory containing the pack
+	 * @throws IOException if the file cannot be opened
+	 */
+	private RadicalImagePack (File dir)
+		throws IOException
+	{
+		File file, files [];
+		ByteBuffer header;
+
+		file = new File (dir, FILE_NAME);
+		raf = new RandomAccessFile (file, "rw");
+		channel = raf.getChannel ();
+		index = new ConcurrentHashMap<String, Slot> ();
+
+		header = ByteBuffer.allocate (HEADER_SIZE);
+		if (channel.size () < HEADER_SIZE || channel.read (header, 0) < HEADER_SIZE ||
+			header.getInt (0) != MAGIC || header.getInt (4) != VERSION) {
+			/* New pack, or old format: the images of the old L2 cache
+			 * (one file per radical) are removed too */
+			files = dir.listFiles ();
+			if (files != null)
+				for (File f : files)
+					if (!f.equals (file))
+						f.delete ();
+
+			channel.truncate (0);
+			header.clear ();
+			header.putInt (MAGIC).putInt (VERSION).flip ();
+			write (header, 0);
+		}
+
+		end = new AtomicLong (scan ());
+		channel.truncate (end.get ());
+		map = channel.map (FileChannel.MapMode.READ_ONLY, 0, end.get ());
+	}
+
+	/**
+	 * Rebuilds the index.
+	 * @return the end of the last valid record
+	 */
+	private int scan ()
+		throws IOException
+	{
+		MappedByteBuffer buf;
+		ByteBuffer data;
+		byte key [], bytes [];
+		CRC32 crc;
+		int pos, last, klen, dlen;
+		long sum;
+
+		buf = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+		crc = new CRC32 ();
+		bytes = new byte [0];
+		pos = last = HEADER_SIZE;
+		while (pos + RECORD_HEADER_SIZE <= buf.limit ()) {
+			klen = buf.getShort (pos) & 0xFFFF;
+			dlen = buf.getInt (pos + 2);
+			sum = buf.getInt (pos + 6) & 0xFFFFFFFFL;
+			if (klen == 0 || klen > MAX_KEY_LENGTH || dlen <= 0 ||
+				dlen > buf.limit () - pos - RECORD_HEADER_SIZE - klen) {
+				pos = skipHole (buf, pos);
+				if (pos < 0)
+					break;
+				continue;
+			}
+
+			key = new byte [klen];
+			data = buf.duplicate ();
+			data.position (pos + RECORD_HEADER_SIZE);
+			data.get (key);
+
+			if (bytes.length < dlen)
+				bytes = new byte [dlen];
+			data.get (bytes, 0, dlen);
+			crc.reset ();
+			crc.update (bytes, 0, dlen);
+
+			pos += RECORD_HEADER_SIZE + klen + dlen;
+			if (crc.getValue () == sum) {
+				index.put (decode (key), new Slot (pos - dlen, dlen));
+				last = pos;
+			}
+		}
+
+		return last;
+	}
+
+	/**
+	 * Skips a hole left by a writer that reserved a region but never
+	 * filled it.
+	 * @param buf the file mapping
+	 * @param pos the start of the hole
+	 * @return the offset of the next record, or <code>-1</code> if
+	 * 	<code>pos</code> is not the start of a hole, or there are no more records
+	 */
+	private static int skipHole (ByteBuffer buf, int pos)
+	{
+		int i;
+
+		for (i = pos; i < buf.limit () && buf.get (i) == 0; i++)
+			/* empty */;
+
+		/* The high byte of the key length is zero, so the record starts
+		 * one byte before. Holes are always longer than a record header */
+		return i - pos > RECORD_HEADER_SIZE && i < buf.limit () ? i - 1 : -1;
+	}
+
+	private static byte [] encode (String s)
+	{
+		try {
+			return s.getBytes ("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException (e);
+		}
+	}
+
+	private static String decode (byte b [])
+	{
+		try {
+			return new String (b, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException (e);
+		}
+	}
+
+	private void write (ByteBuffer buf, long pos)
+		throws IOException
+	{
+		while (buf.hasRemaining ())
+			pos += channel.write (buf, pos);
+	}
+
+	/**
+	 * Makes sure that the mapping covers a given offset.
+	 * @param offset the offset
+	 * @return the mapping
+	 */
+	private synchronized MappedByteBuffer map (int offset)
+		throws IOException
+	{
+		if (map.limit () < offset)
+			map = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+
+		return map;
+	}
+
+	/**
+	 * Looks up an image.
+	 * @param key the radical key
+	 * @return a read-only slice of the mapping containing the image data,
+	 * 	or <code>null</code> if not found or still being written
+	 */
+	public ByteBuffer get (String key)
+		throws IOException
+	{
+		MappedByteBuffer buf;
+		ByteBuffer ans;
+		Slot slot;
+
+		slot = index.get (key);
+		if (slot == null || slot == PENDING)
+			return null;
+
+		buf = map;
+		if (buf.limit () < slot.offset + slot.length)
+			buf = map (slot.offset + slot.length);
+
+		ans = buf.duplicate ();
+		ans.position (slot.offset);
+		ans.limit (slot.offset + slot.length);
+
+		return ans.slice ();
+	}
+
+	/**
+	 * Adds an image to the pack. If the image is already there (or
+	 * another thread is adding it), nothing happens.
+	 * @param key the radical key
+	 * @param data the image data
+	 */
+	public void put (String key, byte data [])
+		throws IOException
+	{
+		ByteBuffer buf;
+		byte bkey [];
+		CRC32 crc;
+		long pos;
+
+		if (data.length == 0)
+			return;
+
+		bkey = encode (key);
+		if (bkey.length > MAX_KEY_LENGTH)
+			return;
+
+		/* Reserve the key first, so that the record is appended only once */
+		if (index.putIfAbsent (key, PENDING) != null)
+			return;
+
+		crc = new CRC32 ();
+		crc.update (data);
+
+		buf = ByteBuffer.allocate (RECORD_HEADER_SIZE + bkey.length + data.length);
+		buf.putShort ((short) bkey.length).putInt (data.length);
+		buf.putInt ((int) crc.getValue ());
+		buf.put (bkey).put (data).flip ();
+
+		pos = end.getAndAdd (buf.remaining ());
+		try {
+			write (buf, pos);
+		} catch (IOException e) {
+			index.remove (key);
+			throw e;
+		}
+
+		index.put (key, new Slot ((int) pos + RECORD_HEADER_SIZE + bkey.length,
+								  data.length));
+	}
+}
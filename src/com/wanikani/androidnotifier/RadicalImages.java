@@ -1,26 +1,25 @@
 package com.wanikani.androidnotifier;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.PriorityBlockingQueue;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
-import android.graphics.BitmapFactory;
+import android.os.Process;
 
+import com.wanikani.wklib.BitmapDecoder;
 import com.wanikani.wklib.Radical;
 
 /* 
@@ -44,88 +43,267 @@ import com.wanikani.wklib.Radical;
  * This object retrieves and caches radical images. 
  * The cache is implemented at two levels:
  * <ul>
- * <li>A L1 memory cache, keeping the last {@link #L1_CACHE_SIZE} bitmaps
- * <li>A L2 disk cache
+ * <li>A L1 memory cache, keeping the most recently used bitmaps, up to
+ * {@link #L1_CACHE_BYTES}
+ * <li>A L2 disk cache, containing the original image files 
+ * (see {@link RadicalImagePack})
  * </ul>
  * Of course this internal structure is hidden to user classes, that should
- * just call {@link #getImage(Radical)} to retrieve the bitmap. Calling this
+ * just call {@link #getImage(Context, Radical)} to retrieve the bitmap. Calling this
  * method makes also sure that the radical is moved to the L1 cache.
+ * <p>
+ * Images can also be loaded asynchronously, through {@link #request}
+ * and {@link #loadAll}. Requests are served by a small pool of
+ * background threads, in priority order, and concurrent requests
+ * for the same radical share the same download.
  */
 public class RadicalImages {
 
 	/**
-	 * An entry in the L1 cache. It implements the comparable interface,
-	 * and the natural ordering puts the latest accessed objects at the head.
+	 * Receives the result of an asynchronous request.
 	 */
-	static class Entry implements Comparable<Entry> {
-
-		/// Last access time
-		Date timestamp;
-		
-		/// Bitmap
-		Bitmap bmp;
+	public interface Listener {
 		
 		/**
-		 * Constructor
-		 * @param bmp the bitmap
+		 * Called, on a loader thread, when a request completes.
+		 * @param r the radical
+		 * @param bmp the image, or <tt>null</tt> if it could not be loaded
 		 */
-		public Entry (Bitmap bmp)
+		public void loaded (Radical r, Bitmap bmp);
+		
+	}
+	
+	/**
+	 * A set of radicals loaded together. Callers consume them 
+	 * in completion order, so each radical can be published as 
+	 * soon as its image is available.
+	 */
+	public static class Batch implements Listener {
+		
+		/// Radicals that completed but have not been consumed yet
+		private List<Radical> completed;
+		
+		/// Radicals whose image could not be loaded
+		private Set<Radical> failed;
+		
+		/// Number of radicals not consumed yet
+		private int pending;
+		
+		Batch (int pending)
 		{
-			this.bmp = bmp;
+			this.pending = pending;
 			
-			timestamp = new Date ();
+			completed = new LinkedList<Radical> ();
+			failed = new HashSet<Radical> ();
 		}
 		
 		@Override
-		public int compareTo (Entry e)
+		public synchronized void loaded (Radical r, Bitmap bmp)
+		{
+			if (bmp == null)
+				failed.add (r);
+			completed.add (r);
+			
+			notifyAll ();
+		}
+		
+		/**
+		 * Waits for the next radical to complete.
+		 * @return the radical, or <tt>null</tt> if all the radicals 
+		 * 	have been consumed, or the thread is interrupted
+		 */
+		public synchronized Radical next ()
+		{
+			while (completed.isEmpty () && pending > 0) {
+				try {
+					wait ();
+				} catch (InterruptedException e) {
+					Thread.currentThread ().interrupt ();
+					return null;
+				}
+			}
+			
+			if (completed.isEmpty ())
+				return null;
+			
+			pending--;
+			
+			return completed.remove (0);
+		}
+		
+		/**
+		 * Tells whether the image of a completed radical was loaded
+		 * @param r the radical
+		 * @return <tt>true</tt> if the image is in the cache
+		 */
+		public synchronized boolean isLoaded (Radical r)
 		{
-			return -timestamp.compareTo (e.timestamp);
-		}		
+			return !failed.contains (r);
+		}
 	}
 	
 	/**
-	 * A general purpose comparator that uses the natural ordering of values
-	 * to compare two map entries.
-	 * @param <K> the entry key
-	 * @param <V> the entry map
+	 * A request, and the listeners waiting for it.
 	 */
-	static class MapEntryComparator<K,V extends Comparable<V>> 
-		implements Comparator<Map.Entry<K, V>> {
+	private static class Request implements Comparable<Request> {
+		
+		/// The cache that issued the request
+		RadicalImages rimg;
+		
+		/// The application context
+		Context ctxt;
+		
+		/// The key
+		String key;
+		
+		/// The priority. Higher goes first
+		int priority;
+		
+		/// Sequence number, to keep FIFO order among requests with the same priority
+		long seq;
+		
+		/// The radicals to notify, one per listener
+		List<Radical> radicals;
+		
+		/// The listeners
+		List<Listener> listeners;
+		
+		public Request (RadicalImages rimg, Context ctxt, String key, int priority)
+		{
+			this.rimg = rimg;
+			this.ctxt = ctxt;
+			this.key = key;
+			this.priority = priority;
+			
+			radicals = new Vector<Radical> ();
+			listeners = new Vector<Listener> ();
+		}
 		
 		@Override
-		public int compare (Map.Entry<K, V> e1, Map.Entry<K, V> e2)
+		public int compareTo (Request r)
 		{
-			return e1.getValue ().compareTo (e2.getValue ());
+			if (priority != r.priority)
+				return priority > r.priority ? -1 : 1;
+			
+			return seq < r.seq ? -1 : seq > r.seq ? 1 : 0;
 		}
+	}
+	
+	/**
+	 * A loader thread.
+	 */
+	private static class Worker extends Thread {
 		
+		public Worker ()
+		{
+			super ("radical-images");
+			
+			setDaemon (true);
+		}
+		
+		@Override
+		public void run ()
+		{
+			Request req;
+			Bitmap bmp;
+			int i;
+			
+			Process.setThreadPriority (Process.THREAD_PRIORITY_BACKGROUND);
+			
+			while (true) {
+				try {
+					req = QUEUE.take ();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				
+				try {
+					bmp = req.rimg.getImage (req.ctxt, req.radicals.get (0));
+				} catch (IOException e) {
+					bmp = null;
+				} catch (RuntimeException e) {
+					bmp = null;
+				}
+				
+				synchronized (INFLIGHT) {
+					INFLIGHT.remove (req.key);
+				}
+				
+				/* No new listener can be added after the request is removed */
+				for (i = 0; i < req.listeners.size (); i++)
+					req.listeners.get (i).loaded (req.radicals.get (i), bmp);
+			}
+		}
 	}
 	
-	/// The L1 cache size
-	public static final int L1_CACHE_SIZE = 128;
+	/// Priority of images needed by item lists being loaded
+	public static final int PRIORITY_BACKGROUND = 0;
+	
+	/// Priority of images needed by rows currently on screen
+	public static final int PRIORITY_VISIBLE = 1;
+	
+	/// Number of loader threads
+	private static final int POOL_SIZE = 3;
+	
+	/// Pending requests
+	private static final PriorityBlockingQueue<Request> QUEUE = 
+			new PriorityBlockingQueue<Request> ();
+	
+	/// Requests that have been submitted and not yet completed, by key.
+	/// Also guards {@link #workers} and {@link #seq}
+	private static final Map<String, Request> INFLIGHT = 
+			new Hashtable<String, Request> ();
+	
+	/// Number of loader threads started so far
+	private static int workers;
+	
+	/// Last sequence number
+	private static long seq;
 
-	/// Number of entries to retain after cleaning the l1 cache because
-	///  the entries are more than #L1_CACHE_SIZE
-	private static final int L1_CACHE_LO = 100;
+	/// The L1 cache budget, in bytes
+	public static final long L1_CACHE_BYTES = 4 * 1024 * 1024;
 	
-	/// Subdirectory containing the (l2 cached) radical image files
+	/// Subdirectory containing the l2 cache
 	private static final String SUBDIRECTORY = "radicalimgs";
 	
-	/// The l1 cache	
-	public Hashtable<String, Entry> ht;
+	/// Size of the buffer used to download images
+	private static final int BUFFER_SIZE = 4096;
 	
-	/// A global mutex that serializes access to the L2 cache
-	private static Object FILE_MUTEX = new Object ();
+	/// The l1 cache	
+	private BitmapCache l1;
 	
-	/// The L1 entry comparator, used when cleaning up the cache	
-	private static final MapEntryComparator<String, Entry> COMPARATOR = 
-			new	MapEntryComparator<String, Entry> ();
+	/// Size of the views displaying the images, in pixels. Zero means full size
+	private volatile int size;
 
 	/**
 	 * Constructor.
 	 */
 	public RadicalImages ()
 	{
-		ht = new Hashtable<String, Entry> ();
+		l1 = new BitmapCache (L1_CACHE_BYTES);
+	}
+	
+	/**
+	 * Sets the size of the views that display the images, so that
+	 * images are decoded at that size, instead of being scaled down
+	 * each time they are drawn. If the size changes, the L1 cache is cleared.
+	 * @param size the size, in pixels
+	 */
+	public void setSize (int size)
+	{
+		if (this.size != size) {
+			this.size = size;
+			l1.clear ();
+		}
+	}
+	
+	/**
+	 * Returns the L1 cache, e.g. to look at its statistics.
+	 * @return the cache
+	 */
+	public BitmapCache getCache ()
+	{
+		return l1;
 	}
 	
 	/**
@@ -138,6 +316,7 @@ public class RadicalImages {
 	public Bitmap getImage (Context ctxt, Radical r)
 		throws IOException
 	{
+		byte data [];
 		Bitmap ans;
 		
 		ans = loadMemory (r);
@@ -150,168 +329,199 @@ public class RadicalImages {
 			return ans;
 		}
 		
-		ans = loadNet (r);
+		data = loadNet (r);
+		ans = BitmapDecoder.decode (data, size);
 		if (ans == null)
 			throw new IOException ("Failed to load image from network");
 	
-		storeDisk (ctxt, r, ans);
+		storeDisk (ctxt, r, data);
 		storeMemory (r, ans);
 		return ans;
 	}
 	
 	/**
-	 * Retrieves an image from the l1 cache
+	 * Returns an image, if it is already in the L1 cache. 
+	 * Unlike {@link #getImage(Context, Radical)}, neither the disk nor the network
+	 * are accessed, so it may be called on the UI thread. Images in the L2 cache
+	 * should be loaded through {@link #request}.
 	 * @param r the radical
-	 * @return the result, or <tt>null</tt> if not found
+	 * @return the bitmap, or <tt>null</tt> if not in the L1 cache
 	 */
-	private Bitmap loadMemory (Radical r)
+	public Bitmap getCachedImage (Radical r)
 	{
-		Entry e;
-		
-		synchronized (ht) {
-			e = ht.get (r.meaning);
-			if (e != null) {
-				e.timestamp = new Date ();
-				return e.bmp;
+		return loadMemory (r);
+	}
+	
+	/**
+	 * Opens the L2 cache in background, so that the first requests
+	 * do not have to wait for the pack to be mapped and checked.
+	 * @param ctxt the application context
+	 */
+	public void openCache (final Context ctxt)
+	{
+		new Thread ("radical-pack") {
+			
+			@Override
+			public void run ()
+			{
+				Process.setThreadPriority (Process.THREAD_PRIORITY_BACKGROUND);
+				
+				getPack (ctxt);
 			}
-		}
-		
-		return null;
+			
+		}.start ();
 	}
 	
 	/**
-	 * Stores an object into the l1 cache
+	 * Loads an image in background. If the image is already being loaded,
+	 * the listener is attached to the pending request, whose priority
+	 * is raised if needed.
+	 * @param ctxt the application context
 	 * @param r the radical
-	 * @param bmp its image
+	 * @param priority the priority (e.g. {@link #PRIORITY_VISIBLE})
+	 * @param listener the listener to notify when done
 	 */
-	private void storeMemory (Radical r, Bitmap bmp)
+	public void request (Context ctxt, Radical r, int priority, Listener listener)
 	{
-		Entry e;
+		Request req;
 		
-		synchronized (ht) {
-			ensureCapacity ();
-			
-			e = new Entry (bmp);
-			
-			ht.put (r.meaning, e);
+		synchronized (INFLIGHT) {
+			req = INFLIGHT.get (r.meaning);
+			if (req == null) {
+				req = new Request (this, ctxt, r.meaning, priority);
+				req.seq = seq++;
+				req.radicals.add (r);
+				req.listeners.add (listener);
+				INFLIGHT.put (r.meaning, req);
+				QUEUE.add (req);
+				
+				while (workers < POOL_SIZE && workers < INFLIGHT.size ()) {
+					new Worker ().start ();
+					workers++;
+				}
+			} else {
+				req.radicals.add (r);
+				req.listeners.add (listener);
+				/* Requeue with the new priority, unless it has already started */
+				if (priority > req.priority && QUEUE.remove (req)) {
+					req.priority = priority;
+					QUEUE.add (req);
+				}
+			}
 		}
 	}
 	
 	/**
-	 * Makes sure that the l1 cache is not overcrowded. If so, older entries
-	 * are removed.
+	 * Loads a set of images in background.
+	 * @param ctxt the application context
+	 * @param l the radicals
+	 * @return a batch that returns the radicals as their images become available
 	 */
-	private void ensureCapacity ()
+	public Batch loadAll (Context ctxt, List<Radical> l)
 	{
-		List<Map.Entry<String, Entry>> l;
-		Hashtable<String, Entry> nht;
-		int i;
+		Batch ans;
 		
-		if (ht.size () > L1_CACHE_SIZE) {
-			nht = new Hashtable<String, Entry> ();
-			l = new Vector<Map.Entry<String, Entry>> (ht.entrySet ());
-			Collections.sort (l, COMPARATOR);
-			for (i = 0; i < L1_CACHE_LO; i++)
-				nht.put (l.get (i).getKey (), l.get (i).getValue ());
-
-			ht = nht;
-		}		
+		ans = new Batch (l.size ());
+		for (Radical r : l)
+			request (ctxt, r, PRIORITY_BACKGROUND, ans);
+		
+		return ans;
+	}
+	
+	/**
+	 * Retrieves an image from the l1 cache
+	 * @param r the radical
+	 * @return the result, or <tt>null</tt> if not found
+	 */
+	private Bitmap loadMemory (Radical r)
+	{
+		return l1.get (r.meaning);
+	}
+	
+	/**
+	 * Stores an object into the l1 cache
+	 * @param r the radical
+	 * @param bmp its image
+	 */
+	private void storeMemory (Radical r, Bitmap bmp)
+	{
+		l1.put (r.meaning, bmp);
 	}
 
 	/**
-	 * Returns the file object associated to a given radical
+	 * Returns the L2 cache.
 	 * @param ctxt the application context
-	 * @param r a radical
-	 * @return a file object
+	 * @return the cache, or <tt>null</tt> if it is not available
 	 */
-	private File getFile (Context ctxt, Radical r)
+	private RadicalImagePack getPack (Context ctxt)
 	{
-		File dir;		
-		
-		dir = ctxt.getDir (SUBDIRECTORY, Context.MODE_PRIVATE);
-		
-		return new File (dir, r.getItemURLComponent ());
+		try {
+			return ctxt != null ? RadicalImagePack.get (ctxt, SUBDIRECTORY) : null;
+		} catch (IOException e) {
+			return null;
+		}
 	}
 	
 	/**
-	 * Retrieves an image from the l2 cache
+	 * Retrieves an image from the l2 cache. The image is decoded straight
+	 * from the pack mapping, at the size of the views.
 	 * @param r the radical
 	 * @return the result, or <tt>null</tt> if not found
 	 */
 	private Bitmap loadDisk (Context ctxt, Radical r)
 	{		
-		InputStream is;
+		RadicalImagePack pack;
+		ByteBuffer buf;
 		
-		if (ctxt == null)
+		pack = getPack (ctxt);
+		if (pack == null)
 			return null;
 		
-		is = null;
 		try {
-			is = new FileInputStream (getFile (ctxt, r));
-			return BitmapFactory.decodeStream (is);
+			buf = pack.get (r.getItemURLComponent ());
+			
+			return buf != null ? BitmapDecoder.decode (buf, size) : null;
 		} catch (IOException e) {
 			return null;
-		} finally {
-			try {
-				if (is != null)
-					is.close ();
-			} catch (IOException e) {
-				/* empty */
-			}
 		}
 	}
 	
 	/**
-	 * Stores an object into the l1 cache
+	 * Stores an image into the l2 cache. Data is stored as it was downloaded,
+	 * so there is no need to compress the bitmap again.
 	 * @param r the radical
-	 * @param bmp its image
+	 * @param data the image file
 	 */
-	private void storeDisk (Context ctxt, Radical r, Bitmap bmp)
+	private void storeDisk (Context ctxt, Radical r, byte data [])
 	{		
-		OutputStream os;
-		File file;		
-		boolean ok;
+		RadicalImagePack pack;
 		
-		if (ctxt == null)
+		pack = getPack (ctxt);
+		if (pack == null)
 			return;
 		
-		file = getFile (ctxt, r);
-		os = null;
-		ok =  false;
-		synchronized (FILE_MUTEX) {
-			try {
-				
-				os = new FileOutputStream (getFile (ctxt, r), false);
-				ok = bmp.compress (CompressFormat.PNG, 100, os);
-					
-			} catch (IOException e) {
-				/* empty */
-			} finally {
-				try {
-					if (os != null)
-						os.close ();
-				} catch (IOException e) {
-					ok = false;
-				}
-				if (!ok)
-					file.delete ();
-			}
+		try {
+			pack.put (r.getItemURLComponent (), data);
+		} catch (IOException e) {
+			/* empty */
 		}
 	}
 
 	/**
 	 * Loads the radical image from the network. Used as a last resort
 	 * @param r the radical
-	 * @return the bitmap
+	 * @return the image file
 	 * @throws IOException
 	 */
-	private Bitmap loadNet (Radical r)
+	private byte [] loadNet (Radical r)
 			throws IOException
 	{
+		ByteArrayOutputStream os;
 		HttpURLConnection conn;
 		InputStream is;
+		byte buf [];
 		URL url;
-		int code;
+		int code, rd;
 
 		conn = null;
 
@@ -321,7 +531,12 @@ public class RadicalImages {
 			code = conn.getResponseCode ();
 			if (code / 100 == 2) {
 				is = conn.getInputStream ();
-					return BitmapFactory.decodeStream (is);
+				os = new ByteArrayOutputStream ();
+				buf = new byte [BUFFER_SIZE];
+				while ((rd = is.read (buf)) > 0)
+					os.write (buf, 0, rd);
+				
+				return os.toByteArray ();
 			} else
 				throw new IOException ("Response code is " + code);
 		} finally {
@@ -17,6 +17,7 @@ import com.wanikani.androidnotifier.db.HistoryDatabase;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.ItemLibrary;
 import com.wanikani.wklib.Kanji;
+import com.wanikani.wklib.LevelBatches;
 import com.wanikani.wklib.Radical;
 import com.wanikani.wklib.UserInformation;
 import com.wanikani.wklib.Vocabulary;
@@ -213,15 +214,6 @@ public class ReconstructDialog {
 		/// Context
 		private Context ctxt;
 		
-		/// Number of radical levels to load at a time
-		private static final int RADICALS_CHUNK = 10;
-		
-		/// Number of kanji levels to load at a time
-		private static final int KANJI_CHUNK = 10;
-		
-		/// Number of vocab levels to load at a time
-		private static final int VOCAB_CHUNK = 5;
-		
 		/**
 		 * Constructor
 		 * @param conn WK connection
@@ -233,35 +225,6 @@ public class ReconstructDialog {
 			this.ctxt = ctxt;
 		}
 		
-		/**
-		 * Conveience method to create an array contaning all the integer between
-		 * to numbers
-		 * @param from the start number
-		 * @param to the end number
-		 * @return the array
-		 */
-		private int [] array (int from, int to)
-		{
-			int ans [], i;
-			
-			ans = new int [to - from + 1];
-			for (i = from; i <= to; i++)
-				ans [i - from] = i;
-			
-			return ans;
-		}
-		
-		/**
-		 * Returns the number of steps needed to load all the item types.
-		 * @param level the user leve
-		 * @param chunk chunk size
-		 * @return the number of steps
-		 */
-		private int itemStepsFor (int level, int chunk)
-		{
-			return (level + chunk - 1) / chunk;
-		}
-		
 		/**
 		 * The reconstruction process itself. It opens a DB reconstruction object,
 		 * loads all the items, and retrieves the new core stats 
@@ -271,92 +234,117 @@ public class ReconstructDialog {
 		protected HistoryDatabase.CoreStats doInBackground (Void... v)
 		{
 			HistoryDatabase.ReconstructTable rt;
+			LevelBatches<Vocabulary> vbatches;
+			LevelBatches<Radical> rbatches;
+			LevelBatches<Kanji> kbatches;
 			ItemLibrary<Vocabulary> vlib;
 			ItemLibrary<Radical> rlib;
 			ItemLibrary<Kanji> klib;
 			UserInformation ui;
 			HistoryDatabase hdb;
-			int i, j, step, steps;
+			int step, steps, levels [];
 			Connection.Meter meter;
 			Update u;
 
 			hdb = null;
 			rt = null;
 			meter = MeterSpec.T.RECONSTRUCT_DIALOG.get (ctxt);
-			synchronized (HistoryDatabase.MUTEX) {
+			try {
+				hdb = new HistoryDatabase (ctxt);
+
+				ui = conn.getUserInformation (meter);
+				/* One step per level and item type, plus start and fixup */
+				steps = 3 * ui.level + 2;
+				step = 0;
+			
+				u = new Update (step++, steps, ctxt.getString (R.string.rec_start));
+				publishProgress (u);
+				
+				/* The write lock is held only while the database is changed,
+				 * and not while items are downloaded, so that the other
+				 * components (e.g. the plots) can read in the meantime. 
+				 * Items are collected in memory by the reconstruct table */
+				HistoryDatabase.beginWrite ();
 				try {
-					hdb = new HistoryDatabase (ctxt);
 					hdb.openW ();
-
-					ui = conn.getUserInformation (meter);
-					steps = (2 * itemStepsFor (ui.level, RADICALS_CHUNK)) +   
-							(2 * itemStepsFor (ui.level, KANJI_CHUNK)) +
-							(2 * itemStepsFor (ui.level, VOCAB_CHUNK)) + 1;
-					step = 0;
+					rt = hdb.startReconstructing (ui);
+				} finally {
+					HistoryDatabase.endWrite ();
+				}
 				
-					u = new Update (step++, steps, ctxt.getString (R.string.rec_start));
+				rbatches = conn.getRadicalsBatches (meter);
+				while (rbatches.hasNext ()) {
+					levels = rbatches.nextLevels ();
+					u = new Update (step, steps, 
+									ctxt.getString (R.string.rec_radicals_r, 
+													levels [0], levels [levels.length - 1]));
 					publishProgress (u);
-					rt = hdb.startReconstructing (ui);
-					for (i = 1; i <= ui.level; i += RADICALS_CHUNK) {
-						j = i + RADICALS_CHUNK - 1;
-						if (j > ui.level)
-							j = ui.level;
-						u = new Update (step++, steps, 
-										ctxt.getString (R.string.rec_radicals_r, i, j));
-						publishProgress (u);
-						rlib = conn.getRadicals (meter, array (i, j));
-						u = new Update (step++, steps, ctxt.getString (R.string.rec_radicals_w));
-						publishProgress (u);
-						for (Radical r : rlib.list)
-							rt.load (r);
-					}
-					
-					for (i = 1; i <= ui.level; i += KANJI_CHUNK) {
-						j = i + KANJI_CHUNK - 1;
-						if (j > ui.level)
-							j = ui.level;
-						u = new Update (step++, steps, 
-										ctxt.getString (R.string.rec_kanji_r, i, j));
-						publishProgress (u);
-						klib = conn.getKanji (meter, array (i, j));
-						u = new Update (step++, steps, ctxt.getString (R.string.rec_kanji_w));
-						publishProgress (u);
-						for (Kanji kanji : klib.list)
-							rt.load (kanji);
-					}
-					
-					for (i = 1; i <= ui.level; i += VOCAB_CHUNK) {
-						j = i + VOCAB_CHUNK - 1;
-						if (j > ui.level)
-							j = ui.level;
-						u = new Update (step++, steps, 
-										ctxt.getString (R.string.rec_vocab_r, i, j));
-						publishProgress (u);
-						vlib = conn.getVocabulary (meter, array (i, j));
-						u = new Update (step++, steps, ctxt.getString (R.string.rec_vocab_w));
-						publishProgress (u);
-						for (Vocabulary vocab : vlib.list)
-							rt.load (vocab);
-					}
-					
-					hdb.endReconstructing (rt);
+					rlib = rbatches.next ();
+					step += levels.length;
+					u = new Update (step, steps, ctxt.getString (R.string.rec_radicals_w));
+					publishProgress (u);
+					for (Radical r : rlib.list)
+						rt.load (r);
+				}
 				
-					u = new Update (step++, steps, ctxt.getString (R.string.rec_fixup_db));
+				kbatches = conn.getKanjiBatches (meter);
+				while (kbatches.hasNext ()) {
+					levels = kbatches.nextLevels ();
+					u = new Update (step, steps, 
+									ctxt.getString (R.string.rec_kanji_r, 
+													levels [0], levels [levels.length - 1]));
 					publishProgress (u);
-					DatabaseFixup.run (ctxt, conn);
-					
-					return hdb.getCoreStats (ui);
+					klib = kbatches.next ();
+					step += levels.length;
+					u = new Update (step, steps, ctxt.getString (R.string.rec_kanji_w));
+					publishProgress (u);
+					for (Kanji kanji : klib.list)
+						rt.load (kanji);
+				}
 				
-				} catch (SQLException e) {
-					return null;
-				} catch (IOException e) {
-					return null;
+				vbatches = conn.getVocabularyBatches (meter);
+				while (vbatches.hasNext ()) {
+					levels = vbatches.nextLevels ();
+					u = new Update (step, steps, 
+									ctxt.getString (R.string.rec_vocab_r, 
+													levels [0], levels [levels.length - 1]));
+					publishProgress (u);
+					vlib = vbatches.next ();
+					step += levels.length;
+					u = new Update (step, steps, ctxt.getString (R.string.rec_vocab_w));
+					publishProgress (u);
+					for (Vocabulary vocab : vlib.list)
+						rt.load (vocab);
+				}
+				
+				HistoryDatabase.beginWrite ();
+				try {
+					hdb.endReconstructing (rt);
 				} finally {
-					if (rt != null)
-						rt.close ();
-					if (hdb != null)
-						hdb.close ();
+					HistoryDatabase.endWrite ();
 				}
+			
+				u = new Update (step++, steps, ctxt.getString (R.string.rec_fixup_db));
+				publishProgress (u);
+				/* Takes the write lock by itself */
+				DatabaseFixup.run (ctxt, conn);
+				
+				HistoryDatabase.beginRead ();
+				try {
+					return hdb.getCoreStats (ui);
+				} finally {
+					HistoryDatabase.endRead ();
+				}
+			
+			} catch (SQLException e) {
+				return null;
+			} catch (IOException e) {
+				return null;
+			} finally {
+				if (rt != null)
+					rt.close ();
+				if (hdb != null)
+					hdb.close ();
 			}
 		}	
 						
@@ -51,6 +51,10 @@ public class SettingsActivity
 		LOCAL_IME, NATIVE
 	};
 	
+	static enum Prefetch {
+		NEVER, WIFI, ALWAYS
+	};
+	
 	/** Preferences enabled key. Must match preferences.xml */
 	private static final String KEY_PREF_ENABLED = "pref_enabled";
 	/** Notify threshold */
@@ -77,6 +81,10 @@ public class SettingsActivity
 	private static final String KEY_PREF_LESSON_ORDER = "pref_lesson_order";
 	/** Info popup */
 	private static final String KEY_PREF_ERROR_POPUP = "pref_error_popup";
+	/** Items cache time to live. Must match preferences.xml */
+	private static final String KEY_PREF_ITEMS_CACHE_TTL = "pref_items_cache_ttl";
+	/** Levels prefetch policy. Must match preferences.xml */
+	private static final String KEY_PREF_ITEMS_PREFETCH = "pref_items_prefetch";
 	/** Enable 42+ mode. Must match preferences.xml */
 	private static final String KEY_PREF_42PLUS = "pref_42plus";
 	/** Wanikani review URL */
@@ -118,6 +126,9 @@ public class SettingsActivity
 	/** Default timeout */
 	private static final int DEFAULT_REFRESH_TIMEOUT = 5;
 	
+	/** Default items cache time to live, in hours */
+	private static final int DEFAULT_ITEMS_CACHE_TTL = 12;
+	
 	/** The current login. Used to check whether something gets changed */
 	private UserLogin login;
 	
@@ -434,6 +445,38 @@ public class SettingsActivity
 		return getInt (prefs (ctxt), KEY_PREF_REFRESH_TIMEOUT, DEFAULT_REFRESH_TIMEOUT);
 	}
 	
+	/**
+	 * Returns the time to live of the persistent items cache.
+	 * @param ctxt the context
+	 * @return the time to live, in milliseconds
+	 */
+	public static long getItemsCacheTTL (Context ctxt)
+	{
+		return getInt (prefs (ctxt), KEY_PREF_ITEMS_CACHE_TTL, 
+					   DEFAULT_ITEMS_CACHE_TTL) * 60 * 60 * 1000L;
+	}
+	
+	public static Prefetch getItemsPrefetch (Context ctxt)
+	{
+		int i;
+		
+		try { 
+			i = Integer.parseInt (prefs (ctxt).getString (KEY_PREF_ITEMS_PREFETCH, "1"));
+		} catch (NumberFormatException e) {
+			i = 1;
+		}
+			
+		switch (i) {
+		case 0:
+			return Prefetch.NEVER;
+			
+		case 2:
+			return Prefetch.ALWAYS;
+		}
+		
+		return Prefetch.WIFI;
+	}
+	
 	public static int getReviewThreshold (Context ctxt)
 	{
 		return getReviewThreshold (prefs (ctxt));
@@ -77,7 +77,9 @@ public class UnlockFilter implements Filter {
 		protected Boolean doInBackground (Void... v)
 		{
 			ItemLibrary<Item> lib;
+			RadicalImages.Batch batch;
 			List<Radical> imgrad;
+			Radical r;
 			Item item;
 			Iterator<Item> i;
 			boolean ok;
@@ -101,15 +103,14 @@ public class UnlockFilter implements Filter {
 				ok = false;
 			}
 			
-			for (Radical r : imgrad) {
-				try {
-					itemf.loadRadicalImage (r);
-				} catch (IOException e) {
+			batch = itemf.loadRadicalImages (imgrad);
+			while ((r = batch.next ()) != null) {
+				if (!batch.isLoaded (r)) {
 					r.character = "?";
 					ok = false;
-				}				
+				}
 				lpublishProgress (new ItemLibrary<Item> (r));
-			}	
+			}
 			
 			return ok;
 		}	
@@ -48,7 +48,8 @@ public class CSVFormat implements Format {
 	{
 		HistoryDatabase db;
 		
-		synchronized (HistoryDatabase.MUTEX) {
+		HistoryDatabase.beginRead ();
+		try {
 			db = new HistoryDatabase (ctxt);
 
 			try {
@@ -58,6 +59,8 @@ public class CSVFormat implements Format {
 			} finally {
 				db.close ();
 			}
+		} finally {
+			HistoryDatabase.endRead ();
 		}
 	}
 	
@@ -1,9 +1,11 @@
 package com.wanikani.androidnotifier.db;
 
+import java.util.BitSet;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Map;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -11,6 +13,7 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.Kanji;
@@ -38,25 +41,27 @@ import com.wanikani.wklib.Vocabulary;
 
 /**
  * The database helper that gives access to the user facts tables.
- * The schema of this database is quite simple, since it comprises just two 
+ * The schema of this database is quite simple, since it comprises just three 
  * (permanent) tables:
  * <ul>
  * <li>The facts table, that records all the SRS distribution state for each day
  * <li>The levels table, associating each level to the the day the user levelled up
+ * <li>The core stats table, a single row summarizing the facts table
  * </ul>   
- * In addition to these tables, this class creates an auxilary (and temporary) table
- * to perform item reconstruction. We do this to minimize the consequences of
- * an item reconstruction going wrong: the actual update of the facts table is
- * performed using a single SQL statement, and this makes error management
- * a lot easier.<p>
+ * Item reconstruction is performed in memory (see {@link ReconstructTable}). 
+ * We do this to minimize the consequences of an item reconstruction going wrong:
+ * the actual update of the facts table is performed in a single transaction,
+ * and this makes error management a lot easier.<p>
  * Access to the three tables is performed through three classes ({@link Facts},
- * {@link Level} and {@link ReconstructTable respectively}). We don't follow
+ * {@link Levels} and {@link Summary} respectively). We don't follow
  * the DAO pattern, since it seems quite unfit to the objects rows represent.<p>
  * This class exposes both static and non-static methods. Static methods should
  * be used for simple operations, because they take care of opening the DB, 
  * doing what's needed, and closing it. Multiple operations require 
  * the caller to create an instance, calling {@link #openR()} or {@link #openW()}, 
  * the appropriate methods, and finally {@link #close()}.
+ * All the instances share the same connection, which stays open as long as at least
+ * one of them is open, and caches its compiled statements.
  */
 public class HistoryDatabase {
 
@@ -333,10 +338,10 @@ public class HistoryDatabase {
 		 */
 		public static void fillGap (SQLiteDatabase db, int day)
 		{
-			SQLiteStatement stmt;
+			BitSet present;
 			String cols [];
 			Cursor c;
-			int i, n;
+			int n;
 			
 			cols = new String [] { "MAX(" + C_DAY + ")" };
 			
@@ -344,17 +349,18 @@ public class HistoryDatabase {
 			if (c == null)
 				return;
 			try {
-				if (c.moveToNext ()) {
-					n = c.isNull (0) ? -1 : (int) c.getLong (0);
-					stmt = db.compileStatement (SQL_INSERT_DAY);
-					for (i = n + 1; i < day; i++) {
-						stmt.bindLong (1, i);
-						stmt.executeInsert ();
-					}
-				}
+				if (!c.moveToNext ())
+					return;
+				n = c.isNull (0) ? -1 : (int) c.getLong (0);
 			} finally {
 				c.close ();
 			}
+			
+			/* Everything up to the last record is considered present */
+			present = new BitSet ();
+			if (n >= 0)
+				present.set (0, n + 1);
+			insertMissing (db, present, day - 1);
 		}
 		
 		/**
@@ -368,33 +374,59 @@ public class HistoryDatabase {
 		public static void fillGapsThoroughly (SQLiteDatabase db, int day)
 			throws SQLException
 		{
-			SQLiteStatement stmt;
+			BitSet present;
 			String cols [], args [];
 			Cursor c;
-			int i;
+			
+			if (day < 0)
+				return;
 						
-			cols = new String [] { " COUNT (*)" };
+			cols = new String [] { C_DAY };
 			args = new String [] { Integer.toString (day) };
 		 	
-			/* First of all we must make sure that gaps do exist */
+			present = new BitSet (day + 1);
 			c = null;
 			try {
 				c = db.query (TABLE, cols, WHERE_DAY_LTE, args, null, null, null);
-				if (c.moveToNext () && !c.isNull (0)) {
-					if (c.getInt (0) == day + 1)
-						return;
-				}
+				while (c.moveToNext ())
+					if (c.getInt (0) >= 0)
+						present.set (c.getInt (0));
 			} finally {
 				if (c != null)
 					c.close ();
 			}
 			
-			/* Yeah, I know, using rowcount I could identify where gaps lie, 
-			 * but this should never happen, so we can afford being brutal */
-			stmt = db.compileStatement (SQL_INSERT_DAY);
-			for (i = 0; i <= day; i++) {
-				stmt.bindLong (1, i);
-				stmt.executeInsert ();
+			insertMissing (db, present, day);
+		}
+		
+		/**
+		 * Adds an empty record for each missing day. All the records are 
+		 * inserted in a single transaction, so the journal is synced only once.
+		 * @param db the database
+		 * @param present the days that already have a record
+		 * @param day the last day that should be present in the sequence
+		 * @throws SQLException
+		 */
+		private static void insertMissing (SQLiteDatabase db, BitSet present, int day)
+			throws SQLException
+		{
+			SQLiteStatement stmt;
+			int i;
+			
+			i = present.nextClearBit (0);
+			if (i > day)
+				return;
+			
+			db.beginTransaction ();
+			try {
+				stmt = compile (db, SQL_INSERT_DAY);
+				for (; i <= day; i = present.nextClearBit (i + 1)) {
+					stmt.bindLong (1, i);
+					stmt.executeInsert ();
+				}
+				db.setTransactionSuccessful ();
+			} finally {
+				db.endTransaction ();
 			}
 		}
 		
@@ -410,6 +442,14 @@ public class HistoryDatabase {
 		{
 			ContentValues cv;
 			String deleteArgs [];
+			int ur, uk, uv, old [];
+			
+			ur = srs.apprentice.radicals + srs.guru.radicals +
+					srs.master.radicals + srs.enlighten.radicals;
+			uk = srs.apprentice.kanji + srs.guru.kanji +
+					srs.master.kanji + srs.enlighten.kanji;
+			uv = srs.apprentice.vocabulary + srs.guru.vocabulary +
+					srs.master.vocabulary + srs.enlighten.vocabulary;
 			
 			cv = new ContentValues ();
 			cv.put (C_DAY, day);
@@ -417,25 +457,19 @@ public class HistoryDatabase {
 			cv.put (C_MASTER_RADICALS, srs.master.radicals);
 			cv.put (C_ENLIGHTEN_RADICALS, srs.enlighten.radicals);
 			cv.put (C_BURNED_RADICALS, srs.burned.radicals);
-			cv.put (C_UNLOCKED_RADICALS,
-					srs.apprentice.radicals + srs.guru.radicals +
-					srs.master.radicals + srs.enlighten.radicals);
+			cv.put (C_UNLOCKED_RADICALS, ur);
 
 			cv.put (C_GURU_KANJI, srs.guru.kanji);
 			cv.put (C_MASTER_KANJI, srs.master.kanji);
 			cv.put (C_ENLIGHTEN_KANJI, srs.enlighten.kanji);
 			cv.put (C_BURNED_KANJI, srs.burned.kanji);
-			cv.put (C_UNLOCKED_KANJI, 
-					srs.apprentice.kanji + srs.guru.kanji +
-					srs.master.kanji + srs.enlighten.kanji);
+			cv.put (C_UNLOCKED_KANJI, uk);
 
 			cv.put (C_GURU_VOCAB, srs.guru.vocabulary);
 			cv.put (C_MASTER_VOCAB, srs.master.vocabulary);
 			cv.put (C_ENLIGHTEN_VOCAB, srs.enlighten.vocabulary);
 			cv.put (C_BURNED_VOCAB, srs.burned.vocabulary);
-			cv.put (C_UNLOCKED_VOCAB,
-					srs.apprentice.vocabulary + srs.guru.vocabulary +
-					srs.master.vocabulary + srs.enlighten.vocabulary);
+			cv.put (C_UNLOCKED_VOCAB, uv);
 			
 			deleteArgs = new String [] { Integer.toString (day) };
 
@@ -445,8 +479,13 @@ public class HistoryDatabase {
 			 * So I do it manually */						
 			db.beginTransaction ();
 			try {
+				old = Summary.getValues (db, deleteArgs);
 				db.delete (TABLE, WHERE_DAY_IS, deleteArgs);
 				db.insertOrThrow (TABLE, null, cv);
+				Summary.replace (db, old, new int [] { 
+					ur, uk, uv, 
+					ur + srs.burned.radicals, uk + srs.burned.kanji, uv + srs.burned.vocabulary 
+				});
 				db.setTransactionSuccessful ();
 			} finally {
 				db.endTransaction ();
@@ -485,7 +524,8 @@ public class HistoryDatabase {
 		
 		/**
 		 * Returns a {@link CoreStats} object, containing some overall info regarding
-		 * this database.
+		 * this database. The maxima are read from the core stats table 
+		 * (see {@link Summary}), so this does not depend on the size of the facts table.
 		 * @param db the database
 		 * @param ui user information
 		 * @return the overall info
@@ -494,38 +534,16 @@ public class HistoryDatabase {
 		public static CoreStats getCoreStats (SQLiteDatabase db, UserInformation ui)
 				throws SQLException
 		{
-			CoreStats cs;
-			String cols [];
-			Cursor c;
+			int max [];
 			
-			cols = new String [] {
-				"MAX(" + C_UNLOCKED_RADICALS + ")",
-				"MAX(" + C_UNLOCKED_KANJI + ")",
-				"MAX(" + C_UNLOCKED_VOCAB + ")",
-				"MAX(" + C_UNLOCKED_RADICALS + " + " + C_BURNED_RADICALS + ")",
-				"MAX(" + C_UNLOCKED_KANJI + " + " + C_BURNED_KANJI + ")",
-				"MAX(" + C_UNLOCKED_VOCAB + " + " + C_BURNED_VOCAB + ")"
-			};
-			c = null;
-			cs = null;
 			try {
-				c = db.query(TABLE, cols, null, null, null, null, null);
-				c.moveToFirst ();
-				cs = new CoreStats (getIntOrZero (c, 0),
-									getIntOrZero (c, 1),
-									getIntOrZero (c, 2),
-									getIntOrZero (c, 3),
-									getIntOrZero (c, 4),
-									getIntOrZero (c, 5),
-									Levels.getLevelInfo (db, ui));
+				max = Summary.get (db);
+				
+				return new CoreStats (max [0], max [1], max [2], max [3], max [4], max [5],
+									  Levels.getLevelInfo (db, ui));
 			} catch (SQLException e) {
-				cs = new CoreStats (0, 0, 0, 0, 0, 0, null);
-			} finally {
-				if (c != null)
-					c.close ();
+				return new CoreStats (0, 0, 0, 0, 0, 0, null);
 			}
-			
-			return cs;
 		}
 
 		/**
@@ -615,72 +633,36 @@ public class HistoryDatabase {
 	}
 	
 	/**
-	 * A temporary table used to reconstruct SRS distribution from item information.
-	 * This is actually implemented by creating a subset of the facts table
-	 * (it contains just the unlocked and burned columns for each item type).
+	 * Reconstructs the SRS distribution from item information.
 	 * An instance of this class is fed with all the items from level one to
-	 * the user's current level, so it can update the rows of this temporary table.
-	 * At the end of the process, we update the master table using a single
-	 * sql statement.
+	 * the user's current level. Each item contributes to the unlocked and burned
+	 * counters of a range of days, so instead of updating each day, we keep
+	 * an in-memory difference array for each counter: a range is added by
+	 * incrementing its first day and decrementing the day after its last one.
+	 * At the end of the process the arrays are turned into counters by a
+	 * single prefix sum, and the rows of the facts table carrying partial or
+	 * no information are replaced in a single transaction.
 	 * This class also takes care of updating the levelup table. Here, however,
-	 * the rows are comparatively few, so we store everything in an hashtable
-	 * and update the master levels table row by row (the operation is idempotent).
+	 * the rows are comparatively few, so we store the earliest unlock day of each
+	 * level in an hashtable, and update the master levels table row by row 
+	 * (the operation is idempotent).
+	 * <p>
+	 * The database is not locked while the items are collected, so other
+	 * components (e.g. the notification service) may write in the meantime.
+	 * For this reason the levels table and the days to be reconstructed 
+	 * are read again when the data is merged.
 	 */
 	public static class ReconstructTable {
 
-		/** The table name */
+		/** The table used by older versions of this class, dropped if still there */
 		private static final String TABLE = "reconstruct";
 		
-		/** Primary key. The same as the master facts table */
-		private static final String C_DAY = "_id";
-		
-		/** Number of burned radicals */
-		private static final String C_BURNED_RADICALS = "burned_radicals";
-		
-		/** Number of unlocked radicals */
-		private static final String C_UNLOCKED_RADICALS = "unlocked_radicals";
-
-		/** Number of burned kanji */
-		private static final String C_BURNED_KANJI = "burned_kanji";
-
-		/** Number of unlocked kanji */
-		private static final String C_UNLOCKED_KANJI = "unlocked_kanji";
-
-		/** Number of burned vocab items */
-		private static final String C_BURNED_VOCAB = "burned_vocab";
-		
-		/** Number of unlocked vocab items */
-		private static final String C_UNLOCKED_VOCAB = "unlocked_vocab";
-		
-		/** The SQL create statement */
-		private static final String SQL_CREATE = 
-				"CREATE TABLE " + TABLE + " (" +
-
-						C_DAY + " INTEGER PRIMARY KEY," +
-						
-						C_BURNED_RADICALS + " INTEGER DEFAULT 0, " +
-						C_UNLOCKED_RADICALS + " INTEGER DEFAULT 0, " +
-
-						C_BURNED_KANJI + " INTEGER DEFAULT 0, " +
-						C_UNLOCKED_KANJI + " INTEGER DEFAULT 0, " +
-
-						C_BURNED_VOCAB + " INTEGER DEFAULT 0, " +
-						C_UNLOCKED_VOCAB + " INTEGER DEFAULT 0)";
-		
 		/** The SQL drop statement */
 		private static final String SQL_DROP = 
 				"DROP TABLE IF EXISTS " + TABLE;
 		
-		/** Loads the day sequence from the master table to the reconstruct table.
-		 *  It is important to select only the rows containing partial or no data,
-		 *  because at the end of the process all those rows will be overwritten
-		 *  on the master table  */
-		private static final String SQL_COPY_FROM_FACTS =
-				"INSERT INTO " + TABLE +  "(" + C_DAY + ") " + 
-						Facts.SQL_MISSING_DAYS;
-		
-		/** Puts the reconstructed data onto the master table */
-		private static final String SQL_COPY_TO_FACTS =
+		/** Puts the reconstructed data of one day onto the master table */
+		private static final String SQL_REPLACE_FACT =
 				"REPLACE INTO " + Facts.TABLE + "( " +
 						Facts.C_DAY + ", " +
 						Facts.C_UNLOCKED_RADICALS + ", " +
@@ -689,78 +671,49 @@ public class HistoryDatabase {
 						Facts.C_BURNED_KANJI + ", " +
 						Facts.C_UNLOCKED_VOCAB + ", "+
 						Facts.C_BURNED_VOCAB + " ) " +
-				"SELECT " +
-						C_DAY + ", " +
-						C_UNLOCKED_RADICALS + ", " +
-						C_BURNED_RADICALS + ", " +
-						C_UNLOCKED_KANJI + ", " +
-						C_BURNED_KANJI + ", " +
-						C_UNLOCKED_VOCAB + ", "+
-						C_BURNED_VOCAB + " " +
-				"FROM " + TABLE;
-
-		/** Increase by one the values of a field from one day up to the end of the table */
-		private static String SQL_ABOVE =
-				"UPDATE " + TABLE + " SET %1$s = %1$s + 1 WHERE " + C_DAY + " >= ?";
-		
-		/** Increase by one the values of a field from one day to another */
-		private static String SQL_BETWEEN =
-				"UPDATE " + TABLE + " SET %1$s = %1$s + 1 WHERE " + 
-						C_DAY + " BETWEEN ? AND ?";
-		
-		/** A prepared statement to update the table when an unlocked radical
-		 *  is encountered. It increments the unlocked radicals counter from
-		 *  the unlock day up to the end of the table */
-		private SQLiteStatement radicalStmtU;
-		
-		/** The first prepared statement to update the table when a burned radical
-		 *  is encountered. It increments the unlocked radicals counter from
-		 *  the unlock day up to the day it is burned */
-		private SQLiteStatement radicalStmtB1;
-		
-		/** The second prepared statement to update the table when a burned radical
-		 *  is encountered. It increments the burned radicals counter from the
-		 *  day it is burned */
-		private SQLiteStatement radicalStmtB2;
-
-		/** A prepared statement to update the table when an unlocked kanji
-		 *  is encountered. It increments the unlocked kanji counter from
-		 *  the unlock day up to the end of the table */
-		private SQLiteStatement kanjiStmtU;
-		
-		/** The first prepared statement to update the table when a burned kanji
-		 *  is encountered. It increments the unlocked kanji counter from
-		 *  the unlock day up to the day it is burned */
-		private SQLiteStatement kanjiStmtB1;
-		
-		/** The second prepared statement to update the table when a burned kanji
-		 *  is encountered. It increments the burned kanji counter from the
-		 *  day it is burned */
-		private SQLiteStatement kanjiStmtB2;
-
-		/** A prepared statement to update the table when an unlocked vocab items
-		 *  is encountered. It increments the unlocked vocab items counter from
-		 *  the unlock day up to the end of the table */
-		private SQLiteStatement vocabStmtU;
-		
-		/** The first prepared statement to update the table when a burned vocab item
-		 *  is encountered. It increments the unlocked vocab items counter from
-		 *  the unlock day up to the day it is burned */
-		private SQLiteStatement vocabStmtB1;
-				
-		/** The second prepared statement to update the table when a burned vocab item
-		 *  is encountered. It increments the burned vocab items counter from the
-		 *  day it is burned */
-		private SQLiteStatement vocabStmtB2;
-
+				"VALUES (?, ?, ?, ?, ?, ?, ?)";
+		
+		/** Loads the days that need to be reconstructed. 
+		 *  It is important to select only the rows containing partial or no data,
+		 *  because at the end of the process all those rows will be overwritten
+		 *  on the master table  */
+		private static final String SQL_MISSING_DAYS =
+				Facts.SQL_MISSING_DAYS + " ORDER BY " + Facts.C_DAY;
+
+		/** Unlocked radicals counter index. Counters are in the same order
+		 *  as the columns of {@link #SQL_REPLACE_FACT} */
+		private static final int S_UNLOCKED_RADICALS = 0;
+		/** Burned radicals counter index */
+		private static final int S_BURNED_RADICALS = 1;
+		/** Unlocked kanji counter index */
+		private static final int S_UNLOCKED_KANJI = 2;
+		/** Burned kanji counter index */
+		private static final int S_BURNED_KANJI = 3;
+		/** Unlocked vocab items counter index */
+		private static final int S_UNLOCKED_VOCAB = 4;
+		/** Burned vocab items counter index */
+		private static final int S_BURNED_VOCAB = 5;
+		
+		/** Number of counters */
+		private static final int COUNTERS = 6;
+		
 		/** The database */
 		private SQLiteDatabase db;
 		
 		/** User information data. Needed to convert dates into days */
 		private UserInformation ui;
 		
-		/** The levels table, mapping levels to levelup and vacation days */
-		private Map<Integer, LevelInfo> levelups;
+		/** Maps each level to the earliest day an item of that level was unlocked */
+		private Map<Integer, Integer> levelups;
+		
+		/** The days to be reconstructed, in increasing order */
+		private int days [];
+		
+		/** The difference arrays, one for each counter. Each element
+		 *  is the change of the counter between the previous day and that day.
+		 *  There is one element past the last day to reconstruct,
+		 *  so that ranges can always be closed */
+		private int deltas [][];
 		
 		/**
 		 * Constructor.
@@ -770,68 +723,73 @@ public class HistoryDatabase {
 		 */
 		private ReconstructTable (UserInformation ui, SQLiteDatabase db, int day)
 		{			
+			int i, n;
+			
 			this.db = db;
 			this.ui = ui;
 			
 			db.execSQL (SQL_DROP);
-			db.execSQL (SQL_CREATE);
-			db.execSQL (SQL_COPY_FROM_FACTS);			
 			
-			levelups = Levels.getLevelInfo (db);
+			levelups = new Hashtable<Integer, Integer> ();
 			
-			radicalStmtU = db.compileStatement 
-					(String.format (SQL_ABOVE, C_UNLOCKED_RADICALS));
-			radicalStmtB1 = db.compileStatement
-					(String.format (SQL_BETWEEN, C_UNLOCKED_RADICALS));
-			radicalStmtB2 = db.compileStatement
-					(String.format (SQL_ABOVE, C_BURNED_RADICALS));
-
-			kanjiStmtU = db.compileStatement 
-					(String.format (SQL_ABOVE, C_UNLOCKED_KANJI));
-			kanjiStmtB1 = db.compileStatement
-					(String.format (SQL_BETWEEN, C_UNLOCKED_KANJI));
-			kanjiStmtB2 = db.compileStatement
-					(String.format (SQL_ABOVE, C_BURNED_KANJI));
-
-			vocabStmtU = db.compileStatement 
-					(String.format (SQL_ABOVE, C_UNLOCKED_VOCAB));
-			vocabStmtB1 = db.compileStatement
-					(String.format (SQL_BETWEEN, C_UNLOCKED_VOCAB));
-			vocabStmtB2 = db.compileStatement
-					(String.format (SQL_ABOVE, C_BURNED_VOCAB));
+			days = loadMissingDays (db);
+			n = days.length > 0 ? days [days.length - 1] + 2 : 1;
+			deltas = new int [COUNTERS][];
+			for (i = 0; i < COUNTERS; i++)
+				deltas [i] = new int [n];
 		}
 		
 		/**
-		 * Ends the reconstruction process. Closes the statements and 
-		 * drops the table.
+		 * Returns the days carrying partial or no information on the master table.
+		 * @param db the database
+		 * @return the days, in increasing order
 		 */
-		public void close ()
+		private static int [] loadMissingDays (SQLiteDatabase db)
 		{
-			radicalStmtU.close ();
-			radicalStmtB1.close ();
-			radicalStmtB2.close ();
-			
-			kanjiStmtU.close ();
-			kanjiStmtB1.close ();
-			kanjiStmtB2.close ();
+			int ans [], tmp [];
+			Cursor c;
+			int n;
 			
-			vocabStmtU.close ();
-			vocabStmtB1.close ();
-			vocabStmtB2.close ();
+			ans = new int [64];
+			n = 0;
+			c = db.rawQuery (SQL_MISSING_DAYS, null);
+			try {
+				while (c.moveToNext ()) {
+					if (n == ans.length) {
+						tmp = new int [n * 2];
+						System.arraycopy (ans, 0, tmp, 0, n);
+						ans = tmp;
+					}
+					ans [n++] = c.getInt (0);
+				}
+			} finally {
+				c.close ();
+			}
 			
-			db.execSQL (SQL_DROP);
+			tmp = new int [n];
+			System.arraycopy (ans, 0, tmp, 0, n);
+
+			return tmp;
+		}
+		
+		/**
+		 * Ends the reconstruction process, releasing the counters.
+		 */
+		public void close ()
+		{
+			deltas = null;
 		}
 		
 		/**
 		 * Updates the levelup hashtable by checking if an item has been
-		 * unlocked before the levelup day of this item's level.
+		 * unlocked before the other items of this item's level seen so far.
 		 * If so, the levelup day is brought back.
 		 * @param i an item   
 		 */
 		private void checkLevelup (Item i)
 		{
+			Integer old;
 			Date unlock;
-			LevelInfo ci;
 			int day;
 			
 			unlock = i.getUnlockedDate ();
@@ -839,113 +797,135 @@ public class HistoryDatabase {
 				return;
 			
 			day = ui.getDay (unlock);
-			ci = levelups.get (i.level);
-			if (ci == null)
-				levelups.put (i.level, new LevelInfo (day, 0));
-			else if (ci.day > day)
-				ci.day = day;
+			old = levelups.get (i.level);
+			if (old == null || old > day)
+				levelups.put (i.level, day);
 		}
 		
 		/**
-		 * Updates table and levlups hashtable using the info contained
-		 * in a radical. This method must be called for each unlocked radical.
-		 * @param radical a radical
+		 * Increments a counter on a range of days. Days that do not need
+		 * to be reconstructed are ignored. 
+		 * @param counter the counter index
+		 * @param from the first day
+		 * @param to the last day (included). May be past the last day
 		 */
-		public void load (Radical radical)
+		private void add (int counter, int from, int to)
+		{
+			int d [];
+			
+			d = deltas [counter];
+			if (from < 0)
+				from = 0;
+			if (to > d.length - 2)
+				to = d.length - 2;
+			if (from > to)
+				return;
+			
+			d [from]++;
+			d [to + 1]--;
+		}
+		
+		/**
+		 * Updates the counters using the info contained in an item.
+		 * An item is unlocked from the day it is unlocked up to
+		 * the day it is burned (included), and burned from that day on.
+		 * @param i the item
+		 * @param unlocked the unlocked counter of its type
+		 * @param burned the burned counter of its type
+		 */
+		private void load (Item i, int unlocked, int burned)
 		{
 			Date from, to;
 			
-			checkLevelup (radical);
+			checkLevelup (i);
 			
-			from = radical.getUnlockedDate ();
+			from = i.getUnlockedDate ();
 			if (from == null)
 				return;
 
-			to = radical.stats.burned ? radical.stats.burnedDate : null; 
+			to = i.getBurnedDate (); 
 			
 			if (to != null) {
-				radicalStmtB1.bindLong (1, ui.getDay (from));
-				radicalStmtB1.bindLong (2, ui.getDay (to));
-				radicalStmtB1.execute ();
-				
-				radicalStmtB2.bindLong (1, ui.getDay (to));
-				radicalStmtB2.execute ();				
-			} else {
-				radicalStmtU.bindLong (1, ui.getDay (from));
-				radicalStmtU.execute ();				
-			}
+				add (unlocked, ui.getDay (from), ui.getDay (to));
+				add (burned, ui.getDay (to), Integer.MAX_VALUE);
+			} else
+				add (unlocked, ui.getDay (from), Integer.MAX_VALUE);
 		}
 		
 		/**
-		 * Updates table and levlups hashtable using the info contained
+		 * Updates counters and levlups hashtable using the info contained
+		 * in a radical. This method must be called for each unlocked radical.
+		 * @param radical a radical
+		 */
+		public void load (Radical radical)
+		{
+			load (radical, S_UNLOCKED_RADICALS, S_BURNED_RADICALS);
+		}
+		
+		/**
+		 * Updates counters and levlups hashtable using the info contained
 		 * in a kanji. This method must be called for each unlocked kanji.
 		 * @param kanji a kanji
 		 */
 		public void load (Kanji kanji)
 		{
-			Date from, to;
-			
-			checkLevelup (kanji);
-
-			from = kanji.getUnlockedDate ();
-			if (from == null)
-				return;
-
-			to = kanji.stats.burned ? kanji.stats.burnedDate : null; 
-			
-			if (to != null) {
-				kanjiStmtB1.bindLong (1, ui.getDay (from));
-				kanjiStmtB1.bindLong (2, ui.getDay (to));
-				kanjiStmtB1.execute ();
-				
-				kanjiStmtB2.bindLong (1, ui.getDay (to));
-				kanjiStmtB2.execute ();				
-			} else {
-				kanjiStmtU.bindLong (1, ui.getDay (from));
-				kanjiStmtU.execute ();				
-			}
+			load (kanji, S_UNLOCKED_KANJI, S_BURNED_KANJI);
 		}
 		
 		/**
-		 * Updates table and levlups hashtable using the info contained
+		 * Updates counters and levlups hashtable using the info contained
 		 * in a vocab item. This method must be called for each unlocked 
 		 * vocab item.
-		 * @param radical a radical
+		 * @param vocab a vocab item
 		 */
 		public void load (Vocabulary vocab)
 		{
-			Date from, to;
-			
-			checkLevelup (vocab);
-			
-			from = vocab.getUnlockedDate ();
-			if (from == null)
-				return;
-			
-			to = vocab.stats.burned ? vocab.stats.burnedDate : null; 
-			
-			if (to != null) {
-				vocabStmtB1.bindLong (1, ui.getDay (from));
-				vocabStmtB1.bindLong (2, ui.getDay (to));
-				vocabStmtB1.execute ();
-				
-				vocabStmtB2.bindLong (1, ui.getDay (to));
-				vocabStmtB2.execute ();				
-			} else {
-				vocabStmtU.bindLong (1, ui.getDay (from));
-				vocabStmtU.execute ();				
-			}
+			load (vocab, S_UNLOCKED_VOCAB, S_BURNED_VOCAB);
 		}
 		
 		/**
 		 * Updates the master tables using the information collected
 		 * during the reconstruction process. Must be called only 
-		 * after all the items have been successfully evaluated.
+		 * after all the items have been successfully evaluated, holding
+		 * the write lock.
 		 */
 		private void merge ()
 		{
-			Levels.setLevelInfo (db, levelups);
-			db.execSQL (SQL_COPY_TO_FACTS);
+			SQLiteStatement stmt;
+			int d [];
+			int i, j, last;
+			
+			for (i = 0; i < COUNTERS; i++) {
+				d = deltas [i];
+				for (j = 1; j < d.length; j++)
+					d [j] += d [j - 1];
+			}
+			
+			last = deltas [0].length - 2;
+			
+			db.beginTransaction ();
+			try {
+				Levels.moveLevelups (db, levelups);
+				
+				/* Some days may have been filled in the meantime */
+				days = loadMissingDays (db);
+				
+				stmt = compile (db, SQL_REPLACE_FACT);
+				for (int day : days) {
+					if (day > last)
+						break;
+					stmt.bindLong (1, day);
+					for (i = 0; i < COUNTERS; i++)
+						stmt.bindLong (i + 2, deltas [i][day]);
+					stmt.executeInsert ();
+				}
+				/* Partial rows may have been overwritten with lower values */
+				Summary.rebuild (db);
+				
+				db.setTransactionSuccessful ();
+			} finally {
+				db.endTransaction ();
+			}
 		}
 		
 	}
@@ -999,10 +979,11 @@ public class HistoryDatabase {
 		private static final String SQL_INSERT_OR_UPDATE =
 				"INSERT OR REPLACE INTO " + TABLE + " VALUES (?, ?, ?)";
 
-		/** Inserts a new row into the table. If a row at the same level
-		 *  already exists, it is replaced */
-		private static final String SQL_REPLACE =
-				"REPLACE INTO " + TABLE + " VALUES (?, ?, ?)";
+		/** Changes the levelup day of a level, retaining its vacation days */
+		private static final String SQL_SET_DAY =
+				"UPDATE " + TABLE + 
+					" SET " + C_DAY + " = ? " +
+					" WHERE " + C_LEVEL + " = ?";
 		
 		/** Adds some more vacation days to a given level */
 		private static final String SQL_ADD_VACATION =
@@ -1051,15 +1032,13 @@ public class HistoryDatabase {
 		public static void insertOrIgnore (SQLiteDatabase db, int level, int day, int vacation)
 			throws SQLException
 		{
-			String values [];
+			SQLiteStatement stmt;
 			
-			values = new String [] {
-				Integer.toString (level), 
-				Integer.toString (day),
-				Integer.toString (vacation)
-			};
-
-			db.execSQL (SQL_INSERT_OR_IGNORE, values);		
+			stmt = compile (db, SQL_INSERT_OR_IGNORE);
+			stmt.bindLong (1, level);
+			stmt.bindLong (2, day);
+			stmt.bindLong (3, vacation);
+			stmt.execute ();
 		}
 		
 		/**
@@ -1074,15 +1053,13 @@ public class HistoryDatabase {
 		public static void insertOrUpdate (SQLiteDatabase db, int level, int day, int vacation)
 			throws SQLException
 		{
-			String values [];
+			SQLiteStatement stmt;
 			
-			values = new String [] {
-				Integer.toString (level), 
-				Integer.toString (day),
-				Integer.toString (vacation)
-			};
-
-			db.execSQL (SQL_INSERT_OR_UPDATE, values);		
+			stmt = compile (db, SQL_INSERT_OR_UPDATE);
+			stmt.bindLong (1, level);
+			stmt.bindLong (2, day);
+			stmt.bindLong (3, vacation);
+			stmt.execute ();
 		}
 
 		/**
@@ -1137,24 +1114,31 @@ public class HistoryDatabase {
 		}
 		
 		/**
-		 * Replaces the contents of the table. If a level is not present 
-		 * in the map, the corresponding table row (if present) is left
-		 * untouched. The operation is not atomic (I can't see a reason why
-		 * it should be).
+		 * Brings levelup days back. The table is read again, and only the
+		 * levels whose day moves earlier are written, so the vacation days
+		 * and the levelups recorded by others are left untouched.
+		 * Levels that are not in the table are added, with no vacation days.
+		 * Should be called in the same transaction as the other updates.
 		 * @param db the database
-		 * @param map a map
+		 * @param days maps levels to the earliest known levelup day
 		 */
-		public static void setLevelInfo (SQLiteDatabase db, Map<Integer, LevelInfo> map)
+		public static void moveLevelups (SQLiteDatabase db, Map<Integer, Integer> days)
 		{
+			Map<Integer, LevelInfo> current;
 			SQLiteStatement stmt;
+			LevelInfo ci;
 			
-			stmt = db.compileStatement (SQL_REPLACE);			
-			
-			for (Map.Entry<Integer, LevelInfo> e : map.entrySet ()) {
-				stmt.bindLong (1, e.getKey ());
-				stmt.bindLong (2, e.getValue().day);
-				stmt.bindLong (3, e.getValue ().vacation);
-				stmt.executeInsert ();
+			current = getLevelInfo (db);
+			for (Map.Entry<Integer, Integer> e : days.entrySet ()) {
+				ci = current.get (e.getKey ());
+				if (ci == null)
+					insertOrIgnore (db, e.getKey (), e.getValue (), 0);
+				else if (ci.day > e.getValue ()) {
+					stmt = compile (db, SQL_SET_DAY);
+					stmt.bindLong (1, e.getValue ());
+					stmt.bindLong (2, e.getKey ());
+					stmt.execute ();
+				}
 			}
 		}
 		
@@ -1165,13 +1149,262 @@ public class HistoryDatabase {
 		 */
 		public static void addVacation (SQLiteDatabase db, long level, long days)
 		{
-			Object args [];
+			SQLiteStatement stmt;
+			
+			stmt = compile (db, SQL_ADD_VACATION);
+			stmt.bindLong (1, days);
+			stmt.bindLong (2, level);
+			stmt.execute ();
+		}
+		
+	}
+	
+	/**
+	 * The core stats table. It contains a single row holding the maxima
+	 * returned by {@link Facts#getCoreStats(SQLiteDatabase, UserInformation)},
+	 * so that they can be read without scanning the whole facts table.
+	 * The row is raised each time a fact is inserted, and rebuilt from 
+	 * the facts table when the table is created and at the end of a
+	 * reconstruction process (which may overwrite partial rows with lower values).
+	 */
+	static class Summary {
+		
+		/** The table name */
+		private static final String TABLE = "corestats";
+		
+		/** Primary key. There is just one row, whose key is zero */
+		private static final String C_ID = "_id";
+		
+		/** Maximum number of unlocked radicals */
+		private static final String C_MAX_UNLOCKED_RADICALS = "max_unlocked_radicals";
+		
+		/** Maximum number of unlocked kanji */
+		private static final String C_MAX_UNLOCKED_KANJI = "max_unlocked_kanji";
+
+		/** Maximum number of unlocked vocab items */
+		private static final String C_MAX_UNLOCKED_VOCAB = "max_unlocked_vocab";
+
+		/** Maximum number of unlocked and burned radicals */
+		private static final String C_MAX_RADICALS = "max_radicals";
+		
+		/** Maximum number of unlocked and burned kanji */
+		private static final String C_MAX_KANJI = "max_kanji";
+		
+		/** Maximum number of unlocked and burned vocab items */
+		private static final String C_MAX_VOCAB = "max_vocab";
+		
+		/** The maxima columns, in the same order as the parameters of
+		 *  {@link #update(SQLiteDatabase, int[])} */
+		private static final String COLUMNS [] = {
+			C_MAX_UNLOCKED_RADICALS, C_MAX_UNLOCKED_KANJI, C_MAX_UNLOCKED_VOCAB,
+			C_MAX_RADICALS, C_MAX_KANJI, C_MAX_VOCAB
+		};
+		
+		/** The create statement */
+		private static final String SQL_CREATE = 
+				"CREATE TABLE " + TABLE + " (" +
+						C_ID + " INTEGER PRIMARY KEY, " +
+						C_MAX_UNLOCKED_RADICALS + " INTEGER NOT NULL DEFAULT 0, " +
+						C_MAX_UNLOCKED_KANJI + " INTEGER NOT NULL DEFAULT 0, " +
+						C_MAX_UNLOCKED_VOCAB + " INTEGER NOT NULL DEFAULT 0, " +
+						C_MAX_RADICALS + " INTEGER NOT NULL DEFAULT 0, " +
+						C_MAX_KANJI + " INTEGER NOT NULL DEFAULT 0, " +
+						C_MAX_VOCAB + " INTEGER NOT NULL DEFAULT 0)";
+
+		/** The drop statement */
+		private static final String SQL_DROP = 
+				"DROP TABLE IF EXISTS " + TABLE;
+		
+		/** Computes the row from the facts table */
+		private static final String SQL_REBUILD =
+				"REPLACE INTO " + TABLE + " (" + C_ID + ", " +
+						C_MAX_UNLOCKED_RADICALS + ", " +
+						C_MAX_UNLOCKED_KANJI + ", " +
+						C_MAX_UNLOCKED_VOCAB + ", " +
+						C_MAX_RADICALS + ", " +
+						C_MAX_KANJI + ", " +
+						C_MAX_VOCAB + ") " +
+				"SELECT 0, " +
+						"IFNULL(MAX(" + Facts.C_UNLOCKED_RADICALS + "), 0), " +
+						"IFNULL(MAX(" + Facts.C_UNLOCKED_KANJI + "), 0), " +
+						"IFNULL(MAX(" + Facts.C_UNLOCKED_VOCAB + "), 0), " +
+						"IFNULL(MAX(" + Facts.C_UNLOCKED_RADICALS + " + " + 
+										Facts.C_BURNED_RADICALS + "), 0), " +
+						"IFNULL(MAX(" + Facts.C_UNLOCKED_KANJI + " + " + 
+										Facts.C_BURNED_KANJI + "), 0), " +
+						"IFNULL(MAX(" + Facts.C_UNLOCKED_VOCAB + " + " + 
+										Facts.C_BURNED_VOCAB + "), 0) " +
+				"FROM " + Facts.TABLE;
+		
+		/** Raises the maxima, given the values of a new fact */
+		private static final String SQL_UPDATE =
+				"UPDATE " + TABLE + " SET " +
+						C_MAX_UNLOCKED_RADICALS + " = MAX(" + C_MAX_UNLOCKED_RADICALS + ", ?), " +
+						C_MAX_UNLOCKED_KANJI + " = MAX(" + C_MAX_UNLOCKED_KANJI + ", ?), " +
+						C_MAX_UNLOCKED_VOCAB + " = MAX(" + C_MAX_UNLOCKED_VOCAB + ", ?), " +
+						C_MAX_RADICALS + " = MAX(" + C_MAX_RADICALS + ", ?), " +
+						C_MAX_KANJI + " = MAX(" + C_MAX_KANJI + ", ?), " +
+						C_MAX_VOCAB + " = MAX(" + C_MAX_VOCAB + ", ?) " +
+				"WHERE " + C_ID + " = 0";
+		
+		/** Where condition, selecting the row */
+		private static final String WHERE_ROW =
+				C_ID + " = 0";
+		
+		/** The values of a fact the maxima are computed from, in the same 
+		 *  order as {@link #COLUMNS} */
+		private static final String FACT_VALUES [] = {
+			Facts.C_UNLOCKED_RADICALS, Facts.C_UNLOCKED_KANJI, Facts.C_UNLOCKED_VOCAB,
+			Facts.C_UNLOCKED_RADICALS + " + " + Facts.C_BURNED_RADICALS,
+			Facts.C_UNLOCKED_KANJI + " + " + Facts.C_BURNED_KANJI,
+			Facts.C_UNLOCKED_VOCAB + " + " + Facts.C_BURNED_VOCAB
+		};
+
+		/**
+		 * Creates the table, computing its row from the facts table.
+		 * @param db the database
+		 */
+		public static void onCreate (SQLiteDatabase db)
+		{
+			db.execSQL (SQL_CREATE);
+			rebuild (db);
+		}
+		
+		/**
+		 * Upgrade from version 2, which had no core stats table
+		 * @param db the database
+		 */
+		public static void upgradeFromV2 (SQLiteDatabase db)
+		{
+			onCreate (db);
+		}
+
+		/**
+		 * Drops the table
+		 * @param db the database
+		 */
+		public static void onDrop (SQLiteDatabase db)
+		{
+			db.execSQL (SQL_DROP);
+		}
+		
+		/**
+		 * Recomputes the row from the facts table.
+		 * @param db the database
+		 * @throws SQLException
+		 */
+		public static void rebuild (SQLiteDatabase db)
+			throws SQLException
+		{
+			db.execSQL (SQL_REBUILD);
+		}
+		
+		/**
+		 * Raises the maxima, if a new fact exceeds them.
+		 * @param db the database
+		 * @param values unlocked radicals, kanji and vocab items, followed by
+		 * 	unlocked and burned radicals, kanji and vocab items
+		 * @throws SQLException
+		 */
+		public static void update (SQLiteDatabase db, int values [])
+			throws SQLException
+		{
+			SQLiteStatement stmt;
+			int i;
+			
+			stmt = compile (db, SQL_UPDATE);
+			for (i = 0; i < values.length; i++)
+				stmt.bindLong (i + 1, values [i]);
+			stmt.execute ();
+		}
+		
+		/**
+		 * Updates the maxima after a fact has been replaced. If the new fact
+		 * lowers a value that was a maximum, the maximum may now belong to
+		 * another day, so the row is recomputed from the facts table. 
+		 * Otherwise this is the same as {@link #update(SQLiteDatabase, int[])}.
+		 * @param db the database
+		 * @param old the values of the replaced fact (see {@link #getValues(SQLiteDatabase, String[])}),
+		 * 	or <code>null</code> if it is a new fact
+		 * @param values the values of the new fact
+		 * @throws SQLException
+		 */
+		public static void replace (SQLiteDatabase db, int old [], int values [])
+			throws SQLException
+		{
+			int max [];
+			int i;
 			
-			args = new Object [] { days, level }; 
+			if (old != null) {
+				max = get (db);
+				for (i = 0; i < values.length; i++)
+					if (values [i] < old [i] && old [i] >= max [i]) {
+						rebuild (db);
+						return;
+					}
+			}
 			
-			db.execSQL (SQL_ADD_VACATION, args);
+			update (db, values);
 		}
 		
+		/**
+		 * Returns the values of a fact that the maxima are computed from.
+		 * @param db the database
+		 * @param dayArgs the where arguments selecting the fact's day
+		 * @return the values, in the same order as the parameters of
+		 * 	{@link #update(SQLiteDatabase, int[])}, or <code>null</code> if
+		 * 	there is no such fact
+		 * @throws SQLException
+		 */
+		public static int [] getValues (SQLiteDatabase db, String dayArgs [])
+			throws SQLException
+		{
+			int ans [];
+			Cursor c;
+			int i;
+			
+			c = db.query (Facts.TABLE, FACT_VALUES, Facts.WHERE_DAY_IS, dayArgs, 
+						  null, null, null);
+			try {
+				if (!c.moveToFirst ())
+					return null;
+				
+				ans = new int [FACT_VALUES.length];
+				for (i = 0; i < ans.length; i++)
+					ans [i] = c.getInt (i);
+			} finally {
+				c.close ();
+			}
+			
+			return ans;
+		}
+		
+		/**
+		 * Returns the maxima.
+		 * @param db the database
+		 * @return the maxima, in the same order as the parameters of
+		 * 	{@link #update(SQLiteDatabase, int[])}
+		 * @throws SQLException
+		 */
+		public static int [] get (SQLiteDatabase db)
+			throws SQLException
+		{
+			int ans [];
+			Cursor c;
+			int i;
+			
+			ans = new int [COLUMNS.length];
+			c = db.query (TABLE, COLUMNS, WHERE_ROW, null, null, null, null);
+			try {
+				if (c.moveToFirst ())
+					for (i = 0; i < ans.length; i++)
+						ans [i] = c.getInt (i);
+			} finally {
+				c.close ();
+			}
+			
+			return ans;
+		}
 	}
 	
 	/**
@@ -1180,7 +1413,7 @@ public class HistoryDatabase {
 	static class OpenHelper extends SQLiteOpenHelper {
 		
 		/** DB Version. Hope I'll never need to change it */
-		private static final int VERSION = 2;
+		private static final int VERSION = 3;
 		
 		/** The db file */
 		private static final String NAME = "history.db";
@@ -1199,6 +1432,7 @@ public class HistoryDatabase {
 		{
 			Facts.onCreate (db);
 			Levels.onCreate (db);
+			Summary.onCreate (db);
 		}
 		
 		@Override
@@ -1206,19 +1440,60 @@ public class HistoryDatabase {
 		{
 			if (oldv < 2)
 				Levels.upgradeFromV1 (db);			
-			
+			if (oldv < 3)
+				Summary.upgradeFromV2 (db);
 		}
 		
 	}
 
-	/** The DB helper */
-	private OpenHelper helper;
+	/**
+	 * The connection to the database, shared by all the instances of this class.
+	 * It is opened by the first instance that needs it and closed when the last
+	 * one is closed, so operations issued while another instance is open
+	 * do not pay for opening the file and checking the schema again.
+	 */
+	private static class Handle {
+		
+		/** The DB helper */
+		OpenHelper helper;
+		
+		/** The database */
+		SQLiteDatabase db;
+		
+		/** Number of open instances */
+		int refs;
+		
+		/** Compiled statements, by SQL text */
+		Map<String, SQLiteStatement> statements;
+		
+		/**
+		 * Constructor
+		 * @param ctxt the context
+		 */
+		Handle (Context ctxt)
+		{
+			helper = new OpenHelper (ctxt);
+			statements = new Hashtable<String, SQLiteStatement> ();
+		}
+	}
+	
+	/** The shared connection, or <code>null</code> if no instance is open */
+	private static Handle handle;
+	
+	/** Guards {@link #handle} */
+	private static final Object HANDLE_LOCK = new Object ();
 	
-	/** The database */
+	/** The context */
+	private Context ctxt;
+	
+	/** The database, or <code>null</code> if this instance is not open */
 	private SQLiteDatabase db;
 	
-	/** Synchronization */
-	public static final Object MUTEX = new Object ();
+	/** Set if the connection is in write-ahead-logging mode (see {@link #acquire(Context)}) */
+	private static final boolean WAL = Build.VERSION.SDK_INT >= 11;
+	
+	/** Synchronization between readers and writers */
+	private static final HistoryLock LOCK = new HistoryLock (WAL);
 		
 	/**
 	 * Cosntructor
@@ -1226,9 +1501,122 @@ public class HistoryDatabase {
 	 */
 	public HistoryDatabase (Context ctxt)
 	{
-		helper = new OpenHelper (ctxt);		
+		this.ctxt = ctxt;
 	}	
 	
+	/**
+	 * Returns the shared connection, opening it if needed.
+	 * @param ctxt the context
+	 * @return the database
+	 */
+	@TargetApi(11)
+	private static SQLiteDatabase acquire (Context ctxt)
+		throws SQLException
+	{
+		Handle h;
+		
+		synchronized (HANDLE_LOCK) {
+			if (handle == null) {
+				h = new Handle (ctxt.getApplicationContext ());
+				h.db = h.helper.getWritableDatabase ();
+				/* Readers (e.g. plot pages) do not block the daily writer */
+				if (WAL)
+					h.db.enableWriteAheadLogging ();
+				handle = h;
+			}
+			handle.refs++;
+			
+			return handle.db;
+		}
+	}
+	
+	/**
+	 * Releases the shared connection. If this was the last
+	 * reference, the statements and the database are closed.
+	 */
+	private static void release ()
+		throws SQLException
+	{
+		synchronized (HANDLE_LOCK) {
+			if (--handle.refs > 0)
+				return;
+			
+			try {
+				for (SQLiteStatement stmt : handle.statements.values ())
+					stmt.close ();
+				handle.helper.close ();
+			} finally {
+				handle = null;
+			}
+		}
+	}
+	
+	/**
+	 * Returns a compiled statement, compiling it only the first time
+	 * it is requested on the shared connection. The statement must not
+	 * be closed, and may only be used between {@link #beginWrite()} and
+	 * {@link #endWrite()}.
+	 * @param db the database, which must be the shared connection 
+	 * @param sql the SQL text
+	 * @return the statement
+	 */
+	static SQLiteStatement compile (SQLiteDatabase db, String sql)
+		throws SQLException
+	{
+		SQLiteStatement ans;
+		
+		synchronized (HANDLE_LOCK) {
+			if (handle == null || handle.db != db)
+				throw new IllegalStateException ("Not the shared connection");
+			
+			ans = handle.statements.get (sql);
+			if (ans == null) {
+				ans = db.compileStatement (sql);
+				handle.statements.put (sql, ans);
+			}
+			
+			return ans;
+		}
+	}
+	
+	/**
+	 * Must be called before a sequence of operations that only read the database,
+	 * and balanced by a call to {@link #endRead()}. Readers never wait for each other.
+	 * If the database is in write-ahead-logging mode, they do not wait for writers
+	 * either, since each query sees a consistent snapshot of the database.
+	 */
+	public static void beginRead ()
+	{
+		LOCK.beginRead ();
+	}
+	
+	/**
+	 * Ends a sequence of read operations.
+	 */
+	public static void endRead ()
+	{
+		LOCK.endRead ();
+	}
+	
+	/**
+	 * Must be called before a sequence of operations that update the database,
+	 * and balanced by a call to {@link #endWrite()}. Writers wait for each other,
+	 * and, unless the database is in write-ahead-logging mode, for the readers.
+	 * Calls may be nested, and reads may be performed while writing.
+	 */
+	public static void beginWrite ()
+	{
+		LOCK.beginWrite ();
+	}
+	
+	/**
+	 * Ends a sequence of write operations.
+	 */
+	public static void endWrite ()
+	{
+		LOCK.endWrite ();
+	}
+	
 	/**
 	 * Opens the database in r/w mode. This method may be called multiple times
 	 * on the same instance, provided that {@link #close()} is called
@@ -1238,28 +1626,31 @@ public class HistoryDatabase {
 		throws SQLException
 	{
 		if (db == null)
-			db = helper.getWritableDatabase ();	
+			db = acquire (ctxt);
 	}
 	
 	/**
 	 * Opens the database in r/o mode. This method may be called multiple times
 	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
+	 * beforehand. Since the connection is shared, it is actually
+	 * the same as {@link #openW()}.
 	 */	
 	public synchronized void openR ()
 		throws SQLException
 	{
-		if (db == null)
-			db = helper.getReadableDatabase ();	
+		openW ();
 	}
 	
 	/**
-	 * Closes the DB.
+	 * Closes this instance. The DB is closed when no other instance is open.
 	 */
-	public void close ()
+	public synchronized void close ()
 		throws SQLException
 	{
-		helper.close ();
+		if (db != null) {
+			db = null;
+			release ();
+		}
 	}
 
 	/**
@@ -1357,7 +1748,8 @@ public class HistoryDatabase {
 	{
 		HistoryDatabase hdb;
 		
-		synchronized (MUTEX) {
+		beginWrite ();
+		try {
 			hdb = new HistoryDatabase (ctxt);
 			hdb.openW ();
 			try {
@@ -1365,6 +1757,8 @@ public class HistoryDatabase {
 			} finally {
 				hdb.close ();
 			}
+		} finally {
+			endWrite ();
 		}
 	}
 	
@@ -1391,14 +1785,17 @@ public class HistoryDatabase {
 	{
 		HistoryDatabase hdb;
 		
-		synchronized (MUTEX) {
+		beginRead ();
+		try {
 			hdb = new HistoryDatabase (ctxt);
-			hdb.openW ();
+			hdb.openR ();
 			try {
 				return hdb.getCoreStats (ui);
 			} finally {
 				hdb.close ();
 			}
+		} finally {
+			endRead ();
 		}
 	}
 	
@@ -1443,7 +1840,8 @@ public class HistoryDatabase {
 	{
 		HistoryDatabase hdb;
 		
-		synchronized (MUTEX) {
+		beginWrite ();
+		try {
 			hdb = new HistoryDatabase (ctxt);
 			hdb.openW ();
 			try {
@@ -1451,6 +1849,8 @@ public class HistoryDatabase {
 			} finally {
 				hdb.close ();
 			}
+		} finally {
+			endWrite ();
 		}
 	}
 }
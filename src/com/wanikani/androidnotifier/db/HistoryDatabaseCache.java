@@ -244,13 +244,15 @@ public class HistoryDatabaseCache {
 			Cursor c;
 			int i, day;
 			
-			synchronized (HistoryDatabase.MUTEX) { 
+			HistoryDatabase.beginRead ();
+			try { 
 				page = new Page (interval [0]);
 				hdb = new HistoryDatabase (ctxt);
 				c = null;
 				try {
 					i = interval [0].start;
 					hdb.openR ();
+					keepOpen ();
 					c = hdb.selectFacts (interval [0].start, interval [0].stop);
 					ltype = null;
 					segment = null;
@@ -286,6 +288,8 @@ public class HistoryDatabaseCache {
 						c.close ();
 					hdb.close ();
 				}
+			} finally {
+				HistoryDatabase.endRead ();
 			}
 			
 			return page;
@@ -304,6 +308,10 @@ public class HistoryDatabaseCache {
 	/** The context */
 	Context ctxt;
 	
+	/** An open database instance, held until the cache is closed, so that
+	 *  loading pages does not reopen the database each time. */
+	HistoryDatabase pinned;
+	
 	/** Registered datasouces */
 	List<DataSource> dsources;
 	
@@ -326,7 +334,7 @@ public class HistoryDatabaseCache {
 	 * Called when an activity becomes available
 	 * @param ctxt the context
 	 */
-	public void open (Context ctxt)
+	public synchronized void open (Context ctxt)
 	{
 		this.ctxt = ctxt;
 	}
@@ -334,9 +342,26 @@ public class HistoryDatabaseCache {
 	/**
 	 * Called when an activity becomes unavailable
 	 */
-	public void close ()
+	public synchronized void close ()
 	{
 		ctxt = null;
+		if (pinned != null) {
+			pinned.close ();
+			pinned = null;
+		}
+	}
+	
+	/**
+	 * Makes sure that the database stays open until the cache is closed.
+	 * Called by the tasks while they keep the database open, 
+	 * so this does not actually open anything.
+	 */
+	private synchronized void keepOpen ()
+	{
+		if (ctxt != null && pinned == null) {
+			pinned = new HistoryDatabase (ctxt);
+			pinned.openR ();
+		}
 	}
 	
 	/**
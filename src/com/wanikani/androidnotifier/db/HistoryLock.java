@@ -0,0 +1,87 @@
+package com.wanikani.androidnotifier.db;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/* 
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Synchronization between the readers and the writers of the history database.
+ * Readers never wait for each other. Writers wait for each other and, 
+ * unless the connection is in write-ahead-logging mode, for the readers.
+ * In WAL mode each query sees a consistent snapshot of the database, 
+ * so readers do not need to wait for writers.
+ * <p>
+ * This class does not depend on the Android framework, so that its
+ * behaviour can be checked on a plain JVM.
+ */
+class HistoryLock {
+
+	/// The lock
+	private ReentrantReadWriteLock lock;
+	
+	/// Set if the connection is in write-ahead-logging mode
+	private boolean wal;
+	
+	/**
+	 * Constructor.
+	 * @param wal set if the connection is in write-ahead-logging mode
+	 */
+	public HistoryLock (boolean wal)
+	{
+		this.wal = wal;
+		
+		lock = new ReentrantReadWriteLock ();
+	}
+	
+	/**
+	 * Must be called before a sequence of operations that only read the database,
+	 * and balanced by a call to {@link #endRead()}.
+	 */
+	public void beginRead ()
+	{
+		if (!wal)
+			lock.readLock ().lock ();
+	}
+	
+	/**
+	 * Ends a sequence of read operations.
+	 */
+	public void endRead ()
+	{
+		if (!wal)
+			lock.readLock ().unlock ();
+	}
+	
+	/**
+	 * Must be called before a sequence of operations that update the database,
+	 * and balanced by a call to {@link #endWrite()}. Calls may be nested, 
+	 * and reads may be performed while writing.
+	 */
+	public void beginWrite ()
+	{
+		lock.writeLock ().lock ();
+	}
+	
+	/**
+	 * Ends a sequence of write operations.
+	 */
+	public void endWrite ()
+	{
+		lock.writeLock ().unlock ();
+	}
+}
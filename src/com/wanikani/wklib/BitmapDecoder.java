@@ -0,0 +1,184 @@
+package com.wanikani.wklib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Decodes images that are going to be displayed in a view of known size.
+ * The image header is read first, to find out the size of the image,
+ * and then the image is subsampled by the largest power of two that
+ * keeps it at least as large as the view. This way pixels that would be
+ * thrown away when drawing are never allocated.
+ */
+public class BitmapDecoder {
+
+	/// Size of the buffer used to read streams
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * An input stream reading from a byte buffer. Used to decode images
+	 * straight from memory mapped files.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		/// The buffer
+		private ByteBuffer buf;
+
+		/**
+		 * Constructor.
+		 * @param buf the buffer. Its position is moved while reading
+		 */
+		public ByteBufferInputStream (ByteBuffer buf)
+		{
+			this.buf = buf;
+		}
+
+		@Override
+		public int read ()
+		{
+			return buf.hasRemaining () ? buf.get () & 0xFF : -1;
+		}
+
+		@Override
+		public int read (byte b [], int off, int len)
+		{
+			if (!buf.hasRemaining ())
+				return -1;
+
+			len = Math.min (len, buf.remaining ());
+			buf.get (b, off, len);
+
+			return len;
+		}
+
+		@Override
+		public int available ()
+		{
+			return buf.remaining ();
+		}
+	}
+
+	/**
+	 * Returns the subsampling factor of an image.
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param size the size of the (square) view, in pixels. If not positive,
+	 * 	the image is not subsampled
+	 * @return the largest power of two that, once the image is scaled down
+	 * 	by that factor, keeps both dimensions not smaller than <code>size</code>
+	 */
+	public static int getSampleSize (int width, int height, int size)
+	{
+		int ans;
+
+		ans = 1;
+		if (size <= 0)
+			return ans;
+
+		while (width / (ans * 2) >= size && height / (ans * 2) >= size)
+			ans *= 2;
+
+		return ans;
+	}
+
+	/**
+	 * Builds the decoding options, given the result of a bounds-only decoding.
+	 * @param bounds the options passed to the bounds-only decoding
+	 * @param size the view size
+	 * @return the options, or <code>null</code> if the image could not be decoded
+	 */
+	private static BitmapFactory.Options getOptions (BitmapFactory.Options bounds, int size)
+	{
+		BitmapFactory.Options ans;
+
+		if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+			return null;
+
+		ans = new BitmapFactory.Options ();
+		ans.inSampleSize = getSampleSize (bounds.outWidth, bounds.outHeight, size);
+
+		return ans;
+	}
+
+	/**
+	 * Decodes an image.
+	 * @param data the image file
+	 * @param size the view size, in pixels
+	 * @return the bitmap, or <code>null</code> if it could not be decoded
+	 */
+	public static Bitmap decode (byte data [], int size)
+	{
+		BitmapFactory.Options opts;
+
+		opts = new BitmapFactory.Options ();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray (data, 0, data.length, opts);
+		opts = getOptions (opts, size);
+
+		return opts != null ? BitmapFactory.decodeByteArray (data, 0, data.length, opts) : null;
+	}
+
+	/**
+	 * Decodes an image.
+	 * @param buf a buffer containing the image file. Its position is not changed
+	 * @param size the view size, in pixels
+	 * @return the bitmap, or <code>null</code> if it could not be decoded
+	 */
+	public static Bitmap decode (ByteBuffer buf, int size)
+	{
+		BitmapFactory.Options opts;
+
+		opts = new BitmapFactory.Options ();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream (new ByteBufferInputStream (buf.duplicate ()), null, opts);
+		opts = getOptions (opts, size);
+
+		return opts != null ? BitmapFactory.decodeStream
+				(new ByteBufferInputStream (buf.duplicate ()), null, opts) : null;
+	}
+
+	/**
+	 * Decodes an image. Since the header is read twice, the
+	 * stream is read into memory first.
+	 * @param is the input stream, which is consumed but not closed
+	 * @param size the view size, in pixels
+	 * @return the bitmap, or <code>null</code> if it could not be decoded
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static Bitmap decode (InputStream is, int size)
+		throws IOException
+	{
+		ByteArrayOutputStream os;
+		byte buf [];
+		int rd;
+
+		os = new ByteArrayOutputStream ();
+		buf = new byte [BUFFER_SIZE];
+		while ((rd = is.read (buf)) > 0)
+			os.write (buf, 0, rd);
+
+		return decode (os.toByteArray (), size);
+	}
+}
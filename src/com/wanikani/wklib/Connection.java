@@ -1,22 +1,24 @@
 package com.wanikani.wklib;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -43,8 +45,195 @@ public class Connection {
 		
 		public void sync ();
 		
+		/**
+		 * Called when a request is answered with a <tt>304 Not Modified</tt>,
+		 * to account for the data that did not need to be downloaded.
+		 * @param data the size, in bytes, of the body that was not transferred
+		 */
+		public void saved (int data);
+		
+	}
+	
+	/**
+	 * The HTTP validators of the last successful response to a given URL, 
+	 * together with the raw body of that response. On a <tt>304 Not Modified</tt>
+	 * the body is parsed again, so each caller gets its own objects and 
+	 * may freely change them.
+	 */
+	static class Validator {
+		
+		String etag;
+		
+		String lastModified;
+		
+		/// The response body, or <code>null</code> if it was too large to keep
+		byte body [];
+		
+		public Validator (HttpURLConnection conn, byte body [])
+		{
+			this.body = body;
+			
+			etag = conn.getHeaderField ("ETag");
+			lastModified = conn.getHeaderField ("Last-Modified");
+		}
+		
+		public boolean isValid ()
+		{
+			return body != null && (etag != null || lastModified != null);
+		}
+		
+		public void setHeaders (HttpURLConnection conn)
+		{
+			if (etag != null)
+				conn.setRequestProperty ("If-None-Match", etag);
+			if (lastModified != null)
+				conn.setRequestProperty ("If-Modified-Since", lastModified);
+		}
+	}
+	
+	/**
+	 * A map of the validators, with LRU eviction. It is static
+	 * because many components (e.g. the notification service)
+	 * create a new connection object each time they poll.
+	 * It is bounded by the total size of the bodies it keeps.
+	 * Not thread safe.
+	 */
+	@SuppressWarnings ("serial")
+	static class ValidatorMap extends LinkedHashMap<String, Validator> {
+		
+		/// Total size of the bodies
+		private long bytes;
+		
+		public ValidatorMap ()
+		{
+			super (16, 0.75f, true);
+		}
+		
+		/**
+		 * Adds a validator, evicting the least recently used ones
+		 * if the budget is exceeded.
+		 * @param url the URL
+		 * @param v the validator
+		 */
+		public void add (String url, Validator v)
+		{
+			Iterator<Validator> i;
+			
+			drop (url);
+			put (url, v);
+			bytes += v.body.length;
+			
+			i = values ().iterator ();
+			while (bytes > MAX_VALIDATOR_BYTES && i.hasNext ()) {
+				bytes -= i.next ().body.length;
+				i.remove ();
+			}
+		}
+		
+		/**
+		 * Removes a validator.
+		 * @param url the URL
+		 */
+		public void drop (String url)
+		{
+			Validator v;
+			
+			v = remove (url);
+			if (v != null)
+				bytes -= v.body.length;
+		}
+	}
+	
+	/**
+	 * An input stream that keeps a copy of the bytes read, 
+	 * unless they exceed a given size.
+	 */
+	static class CapturingInputStream extends FilterInputStream {
+		
+		/// The copy
+		private ByteArrayOutputStream os;
+		
+		/// Maximum size of the copy
+		private int max;
+		
+		public CapturingInputStream (InputStream is, int max)
+		{
+			super (is);
+			
+			this.max = max;
+			os = new ByteArrayOutputStream ();
+		}
+		
+		@Override
+		public int read ()
+			throws IOException
+		{
+			int ans;
+			
+			ans = super.read ();
+			if (ans >= 0)
+				capture (new byte [] { (byte) ans }, 0, 1);
+			
+			return ans;
+		}
+		
+		@Override
+		public int read (byte b [], int off, int len)
+			throws IOException
+		{
+			int ans;
+			
+			ans = super.read (b, off, len);
+			if (ans > 0)
+				capture (b, off, ans);
+			
+			return ans;
+		}
+		
+		@Override
+		public long skip (long n)
+			throws IOException
+		{
+			/* Skipped bytes would be missing from the copy */
+			os = null;
+			
+			return super.skip (n);
+		}
+		
+		private void capture (byte b [], int off, int len)
+		{
+			if (os == null)
+				return;
+			
+			if (os.size () + len > max)
+				os = null;
+			else
+				os.write (b, off, len);
+		}
+		
+		/**
+		 * Returns the bytes read so far.
+		 * @return the bytes, or <code>null</code> if they exceeded the limit
+		 */
+		public byte [] getBytes ()
+		{
+			return os != null ? os.toByteArray () : null;
+		}
 	}
 	
+	/**
+	 * A meter that ignores everything. Used when parsing saved bodies,
+	 * which have already been accounted for.
+	 */
+	private static final Meter NO_METER = new Meter () {
+		
+		public void count (int data) { /* empty */ }
+		
+		public void sync () { /* empty */ }
+		
+		public void saved (int data) { /* empty */ }
+	};
+	
 	class Response {
 		
 		UserInformation ui;
@@ -70,10 +259,68 @@ public class Connection {
 		}
 	}
 	
+	/**
+	 * A response whose requested information is a list of items.
+	 * Instead of building the whole JSON tree of the response, 
+	 * items are deserialized one at a time while they are read from
+	 * the stream, so only one of them is kept as a <code>JSONObject</code>
+	 * at any time.
+	 */
+	class StreamingResponse<T extends Item> {
+		
+		UserInformation ui;
+		
+		ItemLibrary<T> lib;
+		
+		public StreamingResponse (JSONStreamReader rd, Item.Factory<T> factory)
+			throws JSONException, IOException
+		{
+			JSONObject error;
+			String name;
+			
+			lib = new ItemLibrary<T> ();
+			error = null;
+			
+			rd.beginObject ();
+			while (rd.hasNext ()) {
+				name = rd.nextName ();
+				if (rd.skipNull ())
+					continue;
+				
+				if (name.equals ("user_information"))
+					ui = new UserInformation (rd.nextObject ());
+				else if (name.equals ("requested_information")) {
+					rd.beginArray ();
+					while (rd.hasNext ())
+						lib.add (factory.deserialize (rd.nextObject ()));
+					rd.endArray ();
+				} else if (name.equals ("error")) {
+					error = new JSONObject ();
+					error.put (name, rd.nextValue ());
+				} else
+					rd.nextValue ();
+			}
+			rd.endObject ();
+			rd.drain ();
+			
+			if (ui == null)
+				throw ApplicationException.buildFromJSON 
+					(error != null ? error : new JSONObject ());
+		}
+	}
+	
 	public static final int CONNECT_TIMEOUT = 20000;
 	
 	public static final int READ_TIMEOUT = 60000;
 	
+	/// Total size of the response bodies kept to answer <tt>304 Not Modified</tt> replies
+	private static final long MAX_VALIDATOR_BYTES = 1024 * 1024;
+	
+	/// Maximum size of a single response body that is kept
+	private static final int MAX_BODY_BYTES = 256 * 1024;
+	
+	private static final ValidatorMap validators = new ValidatorMap ();
+	
 	UserLogin login;
 	
 	Config config;
@@ -84,6 +331,8 @@ public class Connection {
 	
 	public ItemsCache cache;
 	
+	DiskItemsCache store;
+	
 	public Connection (UserLogin login, Config config)
 	{
 		this.login = login;
@@ -97,9 +346,28 @@ public class Connection {
 		cache = new ItemsCache ();
 	}
 	
+	/**
+	 * Makes the items cache persistent, by attaching a disk store to it.
+	 * The store is kept when the cache is replaced or flushed.
+	 * @param store the store
+	 */
+	public void setStore (DiskItemsCache store)
+	{
+		this.store = store;
+		cache.setStore (store);
+	}
+	
+	public void setCache (ItemsCache cache)
+	{
+		cache.setStore (store);
+		this.cache = cache;
+	}
+	
 	public void flush ()
 	{
-		cache = new ItemsCache ();
+		if (store != null)
+			store.flush ();
+		setCache (new ItemsCache ());
 	}
 	
 	public UserInformation getUserInformation (Meter meter)
@@ -189,178 +457,148 @@ public class Connection {
 			throws IOException
 	{
 		ItemLibrary<Radical> ans;
-		Response res;
 			
 		ans = cache.radicals.get (level);
 		if (ans != null)
 			return ans;
 		
-		try {
-			res = call (meter, "radicals", true, Integer.toString (level));
-
-			return cache.radicals.put 
-					(new ItemLibrary<Radical> (Radical.FACTORY, res.infoAsArray));
-				
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return getRadicals (meter, new int [] { level });
 	}
 
 	public ItemLibrary<Radical> getRadicals (Meter meter, int levels [])
 		throws IOException
 	{
-		ItemLibrary<Radical> ans;
-		Response res;
-		
-		ans = new ItemLibrary<Radical> ();
-		levels = cache.radicals.get (ans, levels);
-		if (levels.length == 0)
-			return ans;
-
-		try {
-			res = call (meter, "radicals", true, levelList (levels));
-
-			return ans.add (cache.radicals.put 
-						(new ItemLibrary<Radical> (Radical.FACTORY, res.infoAsArray)));
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return cache.radicals.get (loader (meter, "radicals", Radical.FACTORY), levels);
 	}
 	
 	public ItemLibrary<Radical> getRadicals (Meter meter)
 			throws IOException
 	{		
-		return getRadicals (meter, getAllLevels (meter));
+		return getRadicalsBatches (meter).collect ();
+	}
+	
+	public LevelBatches<Radical> getRadicalsBatches (Meter meter, int levels [])
+	{
+		return new LevelBatches<Radical> (this, meter, Item.Type.RADICAL, levels) {
+			protected ItemLibrary<Radical> fetch (Meter meter, int levels [])
+				throws IOException
+			{
+				return getRadicals (meter, levels);
+			}
+		};
+	}
+	
+	public LevelBatches<Radical> getRadicalsBatches (Meter meter)
+			throws IOException
+	{
+		return getRadicalsBatches (meter, getAllLevels (meter));
 	}
 		
 	public ItemLibrary<Kanji> getKanji (Meter meter, int level)
 		throws IOException
 	{
 		ItemLibrary<Kanji> ans;
-		Response res;
 		
 		ans = cache.kanji.get (level);
 		if (ans != null)
 			return ans;
 		
-		try {
-			res = call (meter, "kanji", true, Integer.toString (level));
-
-			return cache.kanji.put 
-				(new ItemLibrary<Kanji> (Kanji.FACTORY, res.infoAsArray));
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return getKanji (meter, new int [] { level });
 	}
 	
 	public ItemLibrary<Kanji> getKanji (Meter meter, int level [])
 		throws IOException
 	{
-		ItemLibrary<Kanji> ans;
-		Response res;
-			
-		ans = new ItemLibrary<Kanji> ();
-		level = cache.kanji.get (ans, level);
-		if (level.length == 0)
-			return ans;
-		
-		try {
-			res = call (meter, "kanji", true, levelList (level));
-
-			return ans.add (cache.kanji.put
-					(new ItemLibrary<Kanji> (Kanji.FACTORY, res.infoAsArray)));
-				
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return cache.kanji.get (loader (meter, "kanji", Kanji.FACTORY), level);
 	}
 		
 	public ItemLibrary<Kanji> getKanji (Meter meter)
 			throws IOException
 	{		
-		return getKanji (meter, getAllLevels (meter));
+		return getKanjiBatches (meter).collect ();
+	}
+	
+	public LevelBatches<Kanji> getKanjiBatches (Meter meter, int levels [])
+	{
+		return new LevelBatches<Kanji> (this, meter, Item.Type.KANJI, levels) {
+			protected ItemLibrary<Kanji> fetch (Meter meter, int levels [])
+				throws IOException
+			{
+				return getKanji (meter, levels);
+			}
+		};
+	}
+	
+	public LevelBatches<Kanji> getKanjiBatches (Meter meter)
+			throws IOException
+	{
+		return getKanjiBatches (meter, getAllLevels (meter));
 	}
 	
 	public ItemLibrary<Vocabulary> getVocabulary (Meter meter, int level)
 		throws IOException
 	{
 		ItemLibrary<Vocabulary> ans;
-		Response res;
 		
 		ans = cache.vocab.get (level);
 		if (ans != null)
 			return ans;
 		
-		try {
-			res = call (meter, "vocabulary", true, Integer.toString (level));
-
-			return cache.vocab.put
-					(new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, res.infoAsArray));
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return getVocabulary (meter, new int [] { level });
 	}
 	
 	public ItemLibrary<Vocabulary> getVocabulary (Meter meter, int level [])
-			throws IOException
+		throws IOException
 	{
-		ItemLibrary<Vocabulary> ans;
-		Response res;		
-		
-		ans = new ItemLibrary<Vocabulary> ();
-		level = cache.vocab.get (ans, level);
-		if (level.length == 0)
-			return ans;
-		
-		try {
-			res = call (meter, "vocabulary", true, levelList (level));
-
-			return ans.add (cache.vocab.put
-					(new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, res.infoAsArray)));
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
+		return cache.vocab.get (loader (meter, "vocabulary", Vocabulary.FACTORY), level);
 	}
 	
 	public ItemLibrary<Vocabulary> getVocabulary (Meter meter)
 			throws IOException
 	{		
-		return getVocabulary (meter, getAllLevels (meter));
+		return getVocabularyBatches (meter).collect ();
+	}
+	
+	public LevelBatches<Vocabulary> getVocabularyBatches (Meter meter, int levels [])
+	{
+		return new LevelBatches<Vocabulary> (this, meter, Item.Type.VOCABULARY, levels) {
+			protected ItemLibrary<Vocabulary> fetch (Meter meter, int levels [])
+				throws IOException
+			{
+				return getVocabulary (meter, levels);
+			}
+		};
+	}
+	
+	public LevelBatches<Vocabulary> getVocabularyBatches (Meter meter)
+			throws IOException
+	{
+		return getVocabularyBatches (meter, getAllLevels (meter));
 	}
 
 	public ItemLibrary<Item> getRecentUnlocks (Meter meter, int count)
 		throws IOException
 	{
-		Response res;
-		
-		try {
-			res = call (meter, "recent-unlocks", true, Integer.toString (count));
-
-			return new ItemLibrary<Item> (Item.FACTORY, res.infoAsArray);
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}		
+		return callItems (meter, "recent-unlocks", Item.FACTORY, 
+						  Integer.toString (count));
 	}
 
 	public ItemLibrary<Item> getCriticalItems (Meter meter)
 			throws IOException
 	{
-		Response res;
-			
-		try {
-			res = call (meter, "critical-items", true);
-				return new ItemLibrary<Item> (Item.FACTORY, res.infoAsArray);
-			
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}		
+		return callItems (meter, "critical-items", Item.FACTORY, null);
 	}
 
+	/**
+	 * Issues a set of independent requests concurrently.
+	 * @param reqs the requests
+	 * @return the batch, that can be used to collect the results
+	 */
+	public FetchExecutor.Batch fetchAll (FetchExecutor.Request<?>... reqs)
+	{
+		return FetchExecutor.submit (this, reqs);
+	}
+	
 	public ItemLibrary<Item> getItems (Meter meter, int level)
 			throws IOException
 	{
@@ -376,29 +614,6 @@ public class Connection {
 					add (radicals).add (kanji).add(vocab);
 	}		
 
-	private static String readStream (Meter meter, InputStream is)
-		throws IOException
-	{
-		InputStreamReader ir;
-		StringBuffer sb;
-		char buf [];
-		int rd;
-		
-		buf = new char [1024];
-		sb = new StringBuffer ();
-		ir = new InputStreamReader (is, "UTF-8");
-		while (true) {
-			rd = ir.read (buf, 0, buf.length);
-			if (rd < 0)
-				break;
-			meter.count (rd);
-			sb.append (buf, 0, rd);
-		}
-		
-		meter.sync ();
-		return sb.toString ();
-	}
-	
 	protected Response call (Meter meter, String resource, boolean isArray)
 			throws IOException
 	{
@@ -408,29 +623,149 @@ public class Connection {
 	protected Response call (Meter meter, String resource, boolean isArray, String arg)
 		throws IOException
 	{
+		CapturingInputStream is;
 		HttpURLConnection conn;
-		JSONTokener tok;
-		InputStream is;
-		URL url;
-		
-		url = new URL (makeURL (resource, arg));
+		JSONStreamReader rd;
+		Validator v;
+		Response ans;
+		JSONObject obj;
+		String url;
+		
+		url = makeURL (resource, arg);
+		v = getValidator (url);
 		conn = null;
-		tok = null;
+		is = null;
 		try {
-			conn = (HttpURLConnection) url.openConnection ();
-			setTimeouts (conn);
-			is = conn.getInputStream ();
-			measureHeaders (meter, conn, false);
-			tok = new JSONTokener (readStream (meter, is));
+			conn = open (url, v);
+			if (notModified (meter, conn, v))
+				rd = new JSONStreamReader (NO_METER, new ByteArrayInputStream (v.body));
+			else {
+				is = new CapturingInputStream (conn.getInputStream (), MAX_BODY_BYTES);
+				rd = new JSONStreamReader (meter, is);
+				measureHeaders (meter, conn, false);
+			}
+			obj = rd.nextObject ();
+			rd.drain ();
+			
+			ans = new Response (obj, isArray);
+			if (is != null)
+				putValidator (url, new Validator (conn, is.getBytes ()));
+			
+			return ans;
+		} catch (JSONException e) {
+			throw new ParseException ();
 		} finally {
 			if (conn != null)
 				conn.disconnect ();
 		}
+	}
+	
+	/**
+	 * Returns a loader that fetches a set of levels of a given resource.
+	 * Used by the items cache to request the levels it is missing.
+	 * @param meter the meter
+	 * @param resource the resource
+	 * @param factory the items factory
+	 * @return the loader
+	 */
+	private <T extends Item> ItemsCache.Loader<T> 
+		loader (final Meter meter, final String resource, final Item.Factory<T> factory)
+	{
+		return new ItemsCache.Loader<T> () {
+			public ItemLibrary<T> load (int levels [])
+				throws IOException
+			{
+				return callItems (meter, resource, factory, levelList (levels));
+			}
+		};
+	}
+	
+	@SuppressWarnings ("unchecked")
+	protected <T extends Item> ItemLibrary<T> 
+		callItems (Meter meter, String resource, Item.Factory<T> factory, String arg)
+		throws IOException
+	{
+		CapturingInputStream is;
+		HttpURLConnection conn;
+		JSONStreamReader rd;
+		ItemLibrary<T> ans;
+		Validator v;
+		String url;
 		
+		url = makeURL (resource, arg);
+		v = getValidator (url);
+		conn = null;
+		is = null;
 		try {
-			return new Response (new JSONObject (tok), isArray);
+			conn = open (url, v);
+			if (notModified (meter, conn, v))
+				rd = new JSONStreamReader (NO_METER, new ByteArrayInputStream (v.body));
+			else {
+				is = new CapturingInputStream (conn.getInputStream (), MAX_BODY_BYTES);
+				rd = new JSONStreamReader (meter, is);
+				measureHeaders (meter, conn, false);
+			}
+			
+			ans = new StreamingResponse<T> (rd, factory).lib;
+			if (is != null)
+				putValidator (url, new Validator (conn, is.getBytes ()));
+			
+			return ans;
 		} catch (JSONException e) {
 			throw new ParseException ();
+		} finally {
+			if (conn != null)
+				conn.disconnect ();
+		}
+	}
+	
+	private HttpURLConnection open (String url, Validator v)
+		throws IOException
+	{
+		HttpURLConnection conn;
+		
+		conn = (HttpURLConnection) new URL (url).openConnection ();
+		setTimeouts (conn);
+		if (v != null)
+			v.setHeaders (conn);
+		
+		return conn;
+	}
+	
+	/**
+	 * Checks whether the server told us that the data we already have is still
+	 * current. If so, the saved bytes are accounted to the meter.
+	 * @param meter the meter
+	 * @param conn the connection
+	 * @param v the validator sent with the request (may be <code>null</code>)
+	 * @return <code>true</code> if <code>v.body</code> can be reused
+	 */
+	private boolean notModified (Meter meter, HttpURLConnection conn, Validator v)
+		throws IOException
+	{
+		if (v == null || conn.getResponseCode () != HttpURLConnection.HTTP_NOT_MODIFIED)
+			return false;
+		
+		meter.saved (v.body.length);
+		measureHeaders (meter, conn, false);
+		
+		return true;
+	}
+	
+	private static Validator getValidator (String url)
+	{
+		synchronized (validators) {
+			return validators.get (url);
+		}
+	}
+	
+	private static void putValidator (String url, Validator v)
+	{
+		synchronized (validators) {
+			if (v.isValid ())
+				validators.add (url, v);
+			else
+				validators.drop (url);
 		}
 	}
 		
@@ -450,7 +785,7 @@ public class Connection {
 				code = conn.getResponseCode ();
 				if (code == 200) {
 					is = conn.getInputStream ();
-					ui.gravatarBitmap = BitmapFactory.decodeStream (is);
+					ui.gravatarBitmap = BitmapDecoder.decode (is, size);
 				} else if (code == 404)
 					ui.gravatarBitmap = defAvatar;
 				measureHeaders (meter, conn, true);
@@ -0,0 +1,164 @@
+package com.wanikani.wklib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The persistent tier of {@link ItemsCache}. Each (item type, level) pair
+ * is stored in its own file, using the binary form produced by
+ * {@link ItemCodec}. Each file starts with a header
+ * containing the time it was written, so that levels older than the
+ * configured time to live are ignored (and downloaded again).
+ * Any I/O or format error is treated as a cache miss.
+ */
+public class DiskItemsCache {
+
+	/// Default time to live (12 hours)
+	public static final long DEFAULT_TTL = 12 * 60 * 60 * 1000;
+
+	/// Suffix of temporary files
+	private static final String TMP_SUFFIX = ".tmp";
+
+	/// The directory containing the files
+	private File dir;
+
+	/// Time to live, in milliseconds. Read from the settings when the
+	/// store is created, so a new value applies to the next connection
+	private final long ttl;
+
+	/**
+	 * Constructor.
+	 * @param dir the directory where files are stored. Must exist
+	 * @param ttl time to live of each level, in milliseconds
+	 */
+	public DiskItemsCache (File dir, long ttl)
+	{
+		this.dir = dir;
+		this.ttl = ttl;
+	}
+
+	private File getFile (Item.Type type, int level)
+	{
+		return new File (dir, type.name ().toLowerCase () + "-" + level);
+	}
+
+	/**
+	 * Loads a level from disk.
+	 * @param type the item type
+	 * @param level the level
+	 * @return the items, or <code>null</code> if the level is not
+	 * 	available or it is expired
+	 */
+	public ItemLibrary<Item> load (Item.Type type, int level)
+	{
+		ItemCodec.Input is;
+		File file;
+		long ts;
+
+		file = getFile (type, level);
+		if (!file.exists ())
+			return null;
+
+		is = null;
+		try {
+			is = new ItemCodec.Input
+					(new BufferedInputStream (new FileInputStream (file)));
+			is.readHeader ();
+			if (is.readByte () != type.ordinal ())
+				return null;
+
+			ts = is.readLong ();
+			if (System.currentTimeMillis () - ts > ttl)
+				return null;
+
+			return is.readLibrary ();
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			/* Corrupted file (e.g. bad enum ordinal) */
+			return null;
+		} finally {
+			try {
+				if (is != null)
+					is.close ();
+			} catch (IOException e) {
+				/* empty */
+			}
+		}
+	}
+
+	/**
+	 * Stores a level on disk. The file is written to a temporary file first,
+	 * and then renamed, so concurrent readers never see partial data.
+	 * Failures are silently ignored.
+	 * @param type the item type
+	 * @param level the level
+	 * @param lib the items
+	 */
+	public void store (Item.Type type, int level, ItemLibrary<? extends Item> lib)
+	{
+		ItemCodec.Output os;
+		File file, tmp;
+		boolean ok;
+
+		file = getFile (type, level);
+		tmp = new File (dir, file.getName () + "-" +
+						Thread.currentThread ().getId () + TMP_SUFFIX);
+		os = null;
+		ok = false;
+		try {
+			os = new ItemCodec.Output
+					(new BufferedOutputStream (new FileOutputStream (tmp, false)));
+			os.writeHeader ();
+			os.writeByte (type.ordinal ());
+			os.writeLong (System.currentTimeMillis ());
+			os.writeLibrary (lib);
+			ok = true;
+		} catch (IOException e) {
+			/* empty */
+		} finally {
+			try {
+				if (os != null)
+					os.close ();
+			} catch (IOException e) {
+				ok = false;
+			}
+			if (!ok || !tmp.renameTo (file))
+				tmp.delete ();
+		}
+	}
+
+	/**
+	 * Removes all the stored levels.
+	 */
+	public void flush ()
+	{
+		File files [];
+
+		files = dir.listFiles ();
+		if (files != null)
+			for (File f : files)
+				f.delete ();
+	}
+}
@@ -0,0 +1,216 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A small executor that runs independent API calls concurrently,
+ * on a bounded pool of daemon threads shared by the whole process.
+ * Requests are submitted in batches: the caller can then either wait
+ * for a specific request, or consume them in completion order.
+ */
+public class FetchExecutor {
+
+	/**
+	 * A request. Implementations typically call one of the
+	 * <code>Connection</code> getters, using their own meter
+	 * (meters are not thread safe).
+	 */
+	public interface Request<T> {
+
+		public T fetch (Connection conn)
+			throws IOException;
+
+	}
+
+	/**
+	 * A set of requests submitted together.
+	 */
+	public static class Batch {
+
+		/// Requests that completed and have not been returned by {@link #next()}
+		private BlockingQueue<Request<?>> completed;
+
+		/// Maps each request to its task
+		private Map<Request<?>, Task<?>> tasks;
+
+		/// Number of requests not yet returned by {@link #next()}
+		private int pending;
+
+		Batch ()
+		{
+			completed = new LinkedBlockingQueue<Request<?>> ();
+			tasks = new Hashtable<Request<?>, Task<?>> ();
+		}
+
+		/**
+		 * Waits for the next request to complete.
+		 * @return the request, or <code>null</code> if all the requests
+		 * 	have already been returned
+		 */
+		public Request<?> next ()
+			throws InterruptedException
+		{
+			synchronized (this) {
+				if (pending == 0)
+					return null;
+				pending--;
+			}
+
+			return completed.take ();
+		}
+
+		/**
+		 * Returns the result of a request, waiting for its completion
+		 * if needed.
+		 * @param req the request
+		 * @return the result
+		 * @throws IOException if the request failed or was cancelled
+		 */
+		@SuppressWarnings ("unchecked")
+		public <T> T get (Request<T> req)
+			throws IOException
+		{
+			Task<T> task;
+
+			task = (Task<T>) tasks.get (req);
+			try {
+				return task.get ();
+			} catch (InterruptedException e) {
+				throw new IOException ("Interrupted");
+			} catch (CancellationException e) {
+				throw new IOException ("Cancelled");
+			} catch (ExecutionException e) {
+				if (e.getCause () instanceof IOException)
+					throw (IOException) e.getCause ();
+				if (e.getCause () instanceof RuntimeException)
+					throw (RuntimeException) e.getCause ();
+				throw new IOException (e.getCause ().toString ());
+			}
+		}
+
+		/**
+		 * Cancels all the requests that have not started yet.
+		 * Running requests are allowed to complete.
+		 */
+		public void cancel ()
+		{
+			for (Task<?> task : tasks.values ())
+				task.cancel (false);
+		}
+
+		private <T> void add (Connection conn, Request<T> req)
+		{
+			Task<T> task;
+
+			task = new Task<T> (this, conn, req);
+			tasks.put (req, task);
+			synchronized (this) {
+				pending++;
+			}
+			POOL.execute (task);
+		}
+	}
+
+	/**
+	 * The task submitted to the pool. When done (whatever the
+	 * outcome), it moves its request in the batch completion queue.
+	 */
+	private static class Task<T> extends FutureTask<T> {
+
+		Batch batch;
+
+		Request<T> req;
+
+		public Task (Batch batch, final Connection conn, final Request<T> req)
+		{
+			super (new Callable<T> () {
+				public T call ()
+					throws IOException
+				{
+					return req.fetch (conn);
+				}
+			});
+
+			this.batch = batch;
+			this.req = req;
+		}
+
+		@Override
+		protected void done ()
+		{
+			batch.completed.add (req);
+		}
+	}
+
+	/**
+	 * Creates daemon threads, so the pool never keeps the process alive.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private int count;
+
+		public synchronized Thread newThread (Runnable r)
+		{
+			Thread ans;
+
+			ans = new Thread (r, "wklib-fetch-" + (++count));
+			ans.setDaemon (true);
+
+			return ans;
+		}
+	}
+
+	/// Maximum number of concurrent requests
+	public static final int POOL_SIZE = 4;
+
+	/// The pool
+	private static final ThreadPoolExecutor POOL =
+			new ThreadPoolExecutor (POOL_SIZE, POOL_SIZE, 0, TimeUnit.SECONDS,
+									new LinkedBlockingQueue<Runnable> (),
+									new DaemonThreadFactory ());
+
+	/**
+	 * Submits a set of requests.
+	 * @param conn the connection the requests will use
+	 * @param reqs the requests
+	 * @return the batch
+	 */
+	public static Batch submit (Connection conn, Request<?>... reqs)
+	{
+		Batch ans;
+
+		ans = new Batch ();
+		for (Request<?> req : reqs)
+			ans.add (conn, req);
+
+		return ans;
+	}
+}
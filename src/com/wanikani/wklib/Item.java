@@ -1,10 +1,10 @@
 package com.wanikani.wklib;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.Date;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,7 +29,95 @@ public abstract class Item implements Serializable {
 	
 	public static final long serialVersionUID = 1L;
 	
-	public static class SortByErrors implements Comparator<Item> {
+	/**
+	 * A comparator that can also express its ordering as a primitive key,
+	 * computed from the columns of an {@link ItemTable}. Comparing the keys
+	 * of two items gives the same result as comparing the items, so
+	 * large lists can be sorted without boxing or <code>Date</code> calls
+	 * (see {@link ItemTable#sort(int[], Comparator)}).
+	 * Comparators made of a chain of keys pack each key in its own range
+	 * of bits, the most significant key in the highest bits.
+	 */
+	public interface KeyedComparator extends Comparator<Item> {
+		
+		/**
+		 * Returns the number of bits of the keys. 
+		 * @return the number of bits, or a negative number if this
+		 * 	comparator can't be expressed as a key (e.g. because
+		 * 	its second key is a plain comparator)
+		 */
+		public int bits ();
+		
+		/**
+		 * Computes the key of an item.
+		 * @param table the table 
+		 * @param row the item row
+		 * @return a non-negative key, smaller than <code>2^bits ()</code>
+		 */
+		public long key (ItemTable table, int row);
+		
+	}
+	
+	/// Bits needed to represent a date key (epoch seconds, plus "no date")
+	private static final int DATE_BITS = 35;
+	
+	/// Largest epoch second that fits a date key
+	private static final long MAX_SECONDS = (1L << (DATE_BITS - 1)) - 1;
+	
+	/**
+	 * Returns the key of a date. Missing dates are always greater
+	 * than any other date.
+	 * @param seconds the date, in epoch seconds
+	 * @param ascending if set, earlier dates give smaller keys
+	 * @return the key
+	 */
+	private static long dateKey (long seconds, boolean ascending)
+	{
+		if (seconds == ItemTable.NO_DATE)
+			return 1L << (DATE_BITS - 1);
+		
+		seconds = Math.max (0, Math.min (MAX_SECONDS, seconds));
+		
+		return ascending ? seconds : MAX_SECONDS - seconds;
+	}
+	
+	/**
+	 * Returns the number of bits of a chain of keys.
+	 * @param bits the bits of the first key
+	 * @param secondKey the next comparator
+	 * @return the total number of bits, or -1 if the chain can't be keyed
+	 */
+	private static int chainBits (int bits, Comparator<Item> secondKey)
+	{
+		int sbits;
+		
+		if (!(secondKey instanceof KeyedComparator))
+			return -1;
+		
+		sbits = ((KeyedComparator) secondKey).bits ();
+		
+		return sbits >= 0 ? bits + sbits : -1;
+	}
+	
+	/**
+	 * Packs a key in front of the key of the next comparator.
+	 * @param key the first key
+	 * @param secondKey the next comparator
+	 * @param table the table
+	 * @param row the item row
+	 * @return the packed key
+	 */
+	private static long chainKey (long key, Comparator<Item> secondKey, 
+								  ItemTable table, int row)
+	{
+		KeyedComparator kc;
+		
+		kc = (KeyedComparator) secondKey;
+		
+		return (key << kc.bits ()) | kc.key (table, row);
+	}
+	
+	public static class SortByErrors implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -71,10 +159,26 @@ public abstract class Item implements Serializable {
 
 			return ans == 0 ? secondKey.compare (a, b) : ans;
 		}
+		
+		public int bits ()
+		{
+			return chainBits (8, secondKey);
+		}
+		
+		public long key (ItemTable table, int row)
+		{
+			int p;
+			
+			p = Math.min (100, table.getPercentage (row));
+			if (p < 0 && !ascending)
+				p = 101;
+			
+			return chainKey (ascending ? 200 - p : p, secondKey, table, row);
+		}
 	}
 	
 
-	public static class SortByTime implements Comparator<Item> {
+	public static class SortByTime implements KeyedComparator {
 		
 		boolean ascending;
 
@@ -110,9 +214,19 @@ public abstract class Item implements Serializable {
 			
 			return ascending ? ans : -ans;
 		}
+		
+		public int bits ()
+		{
+			return DATE_BITS;
+		}
+		
+		public long key (ItemTable table, int row)
+		{
+			return dateKey (table.getUnlocked (row), ascending);
+		}
 	}
 	
-	public static class SortByAvailable implements Comparator<Item> {
+	public static class SortByAvailable implements KeyedComparator {
 		
 		boolean ascending;
 
@@ -131,8 +245,8 @@ public abstract class Item implements Serializable {
 			boolean ba, bb;
 			int ans;
 
-			ba = a.stats != null && a.stats.burned;
-			bb = b.stats != null && b.stats.burned;
+			ba = a.isBurned ();
+			bb = b.isBurned ();
 			
 			/* Burned items go last */
 			if (ba && !bb)
@@ -158,9 +272,23 @@ public abstract class Item implements Serializable {
 			
 			return ascending ? ans : -ans;
 		}
+		
+		public int bits ()
+		{
+			return 1 + DATE_BITS;
+		}
+		
+		public long key (ItemTable table, int row)
+		{
+			long burned;
+			
+			burned = table.isBurned (row) ? 1 : 0;
+			
+			return (burned << DATE_BITS) | dateKey (table.getAvailable (row), !ascending);
+		}
 	}
 	
-	public static class SortByLevel implements Comparator<Item> {
+	public static class SortByLevel implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -192,9 +320,23 @@ public abstract class Item implements Serializable {
 
 			return ans == 0 ? secondKey.compare (a, b) : ans;
 		}
+		
+		public int bits ()
+		{
+			return chainBits (7, secondKey);
+		}
+		
+		public long key (ItemTable table, int row)
+		{
+			int l;
+			
+			l = Math.max (0, Math.min (127, table.getLevel (row)));
+			
+			return chainKey (ascending ? l : 127 - l, secondKey, table, row);
+		}
 	}
 
-	public static class SortBySRS implements Comparator<Item> {
+	public static class SortBySRS implements KeyedComparator {
 		
 		boolean ascending;
 		
@@ -221,11 +363,11 @@ public abstract class Item implements Serializable {
 		{
 			int ans;
 			
-			if (a.stats != null && b.stats != null)
-				ans = a.stats.srs.compareTo (b.stats.srs);
-			else if (a.stats != null)
+			if (a.record != null && b.record != null)
+				ans = a.record.srs - b.record.srs;
+			else if (a.record != null)
 				ans = 1;
-			else if (b.stats != null)
+			else if (b.record != null)
 				ans = -1;
 			else
 				ans = 0;
@@ -234,9 +376,24 @@ public abstract class Item implements Serializable {
 
 			return ans == 0 ? secondKey.compare (a, b) : ans;
 		}
+		
+		public int bits ()
+		{
+			return chainBits (3, secondKey);
+		}
+		
+		public long key (ItemTable table, int row)
+		{
+			int srs;
+			
+			/* Locked items come first (0), then SRS levels from 1 to 5 */ 
+			srs = table.getSRSOrdinal (row) + 1;
+			
+			return chainKey (ascending ? srs : 7 - srs, secondKey, table, row);
+		}
 	}
 
-	public static class SortByType implements Comparator<Item> {
+	public static class SortByType implements KeyedComparator {
 		
 		Comparator<Item> secondKey;
 		
@@ -262,6 +419,16 @@ public abstract class Item implements Serializable {
 			
 			return ans == 0 ? secondKey.compare (a, b) : ans;
 		}
+		
+		public int bits ()
+		{
+			return chainBits (2, secondKey);
+		}
+		
+		public long key (ItemTable table, int row)
+		{
+			return chainKey (table.getTypeOrdinal (row), secondKey, table, row);
+		}
 	}
 
 	public interface Factory<T extends Item> {
@@ -269,6 +436,9 @@ public abstract class Item implements Serializable {
 		public T deserialize (JSONObject obj)
 			throws JSONException;
 		
+		public T deserialize (ItemCodec.Input in)
+			throws IOException;
+		
 	};
 		
 	public static enum Type {
@@ -320,13 +490,12 @@ public abstract class Item implements Serializable {
 		
 		public int currentStreak;
 		
-		Performance (JSONObject obj, String prefix)
-			throws JSONException
+		Performance (int perf [], int offset)
 		{
-			correct = Util.getInt (obj, prefix + "_correct");
-			incorrect = Util.getInt (obj, prefix + "_incorrect");
-			maxStreak = Util.getInt (obj, prefix + "_max_streak");
-			currentStreak = Util.getInt (obj, prefix + "_current_streak");
+			correct = perf [offset];
+			incorrect = perf [offset + 1];
+			maxStreak = perf [offset + 2];
+			currentStreak = perf [offset + 3];
 		}
 		
 	};
@@ -355,26 +524,84 @@ public abstract class Item implements Serializable {
 		
 		public String userSynonyms [];
 		
-		Stats (JSONObject obj, boolean hasReading)
+		Stats (StatsRecord r)
+		{
+			srs = SRSLevel.values () [r.srs];
+			unlockedDate = Util.toDate (r.unlocked);
+			availableDate = Util.toDate (r.available);
+			burnedDate = Util.toDate (r.burnedAt);
+			burned = r.burned;
+			
+			if (r.perf.length > StatsRecord.PERF_FIELDS)
+				reading = new Item.Performance (r.perf, StatsRecord.PERF_FIELDS);
+			meaning = new Item.Performance (r.perf, 0);
+			
+			meaningNote = r.meaningNote;
+			readingNote = r.readingNote;
+			userSynonyms = r.userSynonyms;
+		}
+	};
+	
+	/**
+	 * The user specific data of an item, in the compact form it is kept 
+	 * in memory: dates are epoch seconds (zero meaning no date), and 
+	 * performance counters are stored in a plain array.
+	 * Most screens just need the SRS level and a date or two, so the
+	 * full {@link Stats} object, with its performance and date objects,
+	 * is built only when someone asks for it (see {@link Item#getStats()}).
+	 */
+	static class StatsRecord implements Serializable {
+		
+		public static final long serialVersionUID = 1L;
+		
+		/// Number of counters of each performance record
+		static final int PERF_FIELDS = 4;
+		
+		/// SRS level ordinal
+		byte srs;
+		
+		/// Unlock date
+		long unlocked;
+		
+		/// Available date
+		long available;
+		
+		/// Burn date
+		long burnedAt;
+		
+		/// Burned flag
+		boolean burned;
+		
+		/// Meaning counters, followed by reading counters (if the item has a reading)
+		int perf [];
+		
+		String meaningNote;
+		
+		String readingNote;
+		
+		String userSynonyms [];
+		
+		StatsRecord (JSONObject obj, boolean hasReading)
 			throws JSONException
 		{
-			JSONArray synonyms;
+			SRSLevel level;
 			String s;
-			int i;
 			
 			s = obj.getString ("srs");
-			srs = SRSLevel.fromString (s);
-			if (srs == null)
+			level = SRSLevel.fromString (s);
+			if (level == null)
 				throw new JSONException ("Bad SRS: " + s);
+			srs = (byte) level.ordinal ();
 			
-			unlockedDate = Util.getDate (obj, "unlocked_date");
-			availableDate = Util.getDate (obj, "available_date"); 
-			burnedDate = Util.getDate (obj, "burned_date");
+			unlocked = Util.getTime (obj, "unlocked_date");
+			available = Util.getTime (obj, "available_date"); 
+			burnedAt = Util.getTime (obj, "burned_date");
 			burned = Util.getBoolean (obj, "burned");
 			
+			perf = new int [hasReading ? 2 * PERF_FIELDS : PERF_FIELDS];
+			read (obj, "meaning", 0);
 			if (hasReading)
-				reading = new Item.Performance (obj, "reading");			
-			meaning = new Item.Performance (obj, "meaning");
+				read (obj, "reading", PERF_FIELDS);
 			
 			meaningNote = Util.getString (obj, "meaning_note");
 			if (obj.has ("reading_note"))
@@ -387,7 +614,90 @@ public abstract class Item implements Serializable {
 					userSynonyms [i] = synonyms.getString (i);
 			}
 			*/
-				
+		}
+		
+		private void read (JSONObject obj, String prefix, int offset)
+			throws JSONException
+		{
+			perf [offset] = Util.getInt (obj, prefix + "_correct");
+			perf [offset + 1] = Util.getInt (obj, prefix + "_incorrect");
+			perf [offset + 2] = Util.getInt (obj, prefix + "_max_streak");
+			perf [offset + 3] = Util.getInt (obj, prefix + "_current_streak");
+		}
+		
+		StatsRecord (ItemCodec.Input in)
+			throws IOException
+		{
+			int i, n;
+			
+			srs = in.readByte ();
+			unlocked = in.readTime ();
+			available = in.readTime ();
+			burnedAt = in.readTime ();
+			burned = in.readBoolean ();
+			
+			perf = new int [in.readBoolean () ? 2 * PERF_FIELDS : PERF_FIELDS];
+			/* Reading counters come first in the stream */
+			if (perf.length > PERF_FIELDS)
+				for (i = PERF_FIELDS; i < perf.length; i++)
+					perf [i] = in.readVarInt ();
+			for (i = 0; i < PERF_FIELDS; i++)
+				perf [i] = in.readVarInt ();
+			
+			meaningNote = in.readString ();
+			readingNote = in.readString ();
+			
+			n = in.readVarInt ();
+			if (n >= 0) {
+				userSynonyms = new String [n];
+				for (i = 0; i < n; i++)
+					userSynonyms [i] = in.readString ();
+			}
+		}
+		
+		void write (ItemCodec.Output out)
+			throws IOException
+		{
+			int i;
+			
+			out.writeByte (srs);
+			out.writeTime (unlocked);
+			out.writeTime (available);
+			out.writeTime (burnedAt);
+			out.writeBoolean (burned);
+			
+			out.writeBoolean (perf.length > PERF_FIELDS);
+			for (i = PERF_FIELDS; i < perf.length; i++)
+				out.writeVarInt (perf [i]);
+			for (i = 0; i < PERF_FIELDS; i++)
+				out.writeVarInt (perf [i]);
+			
+			out.writeString (meaningNote);
+			out.writeString (readingNote);
+			
+			if (userSynonyms != null) {
+				out.writeVarInt (userSynonyms.length);
+				for (i = 0; i < userSynonyms.length; i++)
+					out.writeString (userSynonyms [i]);
+			} else
+				out.writeVarInt (-1);
+		}
+		
+		/**
+		 * Computes the percentage of correct answers.
+		 * @return the percentage, or 100 if there are no answers yet
+		 */
+		int percentage ()
+		{
+			int i, num, den;
+			
+			num = den = 0;
+			for (i = 0; i < perf.length; i += PERF_FIELDS) {
+				num += perf [i];
+				den += perf [i] + perf [i + 1];
+			}
+			
+			return den != 0 ? num * 100 / den : 100;
 		}
 	};
 	
@@ -406,6 +716,17 @@ public abstract class Item implements Serializable {
 
 			return type.getFactory ().deserialize (obj);
 		}
+		
+		/**
+		 * Reads an item whose type is not known in advance. The stream must
+		 * contain the ordinal of the item type, followed by the output of
+		 * {@link Item#write(ItemCodec.Output)}.
+		 */
+		public Item deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return Type.values () [in.readByte ()].getFactory ().deserialize (in);
+		}
 	}
 	
 	public static final Factory<Item> FACTORY = new DynamicFactory ();
@@ -418,57 +739,151 @@ public abstract class Item implements Serializable {
 	
 	public int level;
 	
-	public Stats stats;
+	/// User specific data, or <code>null</code> for locked items
+	StatsRecord record;
+	
+	/// The full user specific data, built on demand from {@link #record}
+	private transient Stats stats;
 	
 	public Integer percentage;
 	
-	private Date unlockedDate;
-		
-	public Date instanceCreationDate;
+	/// Unlock date in epoch seconds, only for recent unlocks (zero otherwise)
+	private long unlocked;
 	
 	protected Item (JSONObject obj, Type type)
 		throws JSONException
 	{
-		int num, den;
-		
 		this.type = type;
 		
-		instanceCreationDate = new Date ();
 		character = Util.getString (obj, "character");
 		meaning = Util.getString (obj, "meaning");
 		level = Util.getInt (obj, "level");
 		
 		if (!obj.isNull ("user_specific"))
-			stats = new Stats (obj.getJSONObject ("user_specific"), hasReading ());
+			record = new StatsRecord (obj.getJSONObject ("user_specific"), hasReading ());
 		
 		/* Only for critical items */
 		if (!obj.isNull ("percentage"))
 			percentage = obj.optInt ("percentage");
-		else if (stats != null) {
-			num = stats.meaning.correct;
-			den = stats.meaning.correct + stats.meaning.incorrect;
-			if (stats.reading != null) {
-				num += stats.reading.correct;
-				den += stats.reading.correct + stats.reading.incorrect;
-			}
-			percentage = den != 0 ? num * 100 / den : 100; 
-		} else
+		else if (record != null)
+			percentage = record.percentage ();
+		else
 			percentage = -1;	/* No info */
 			
 		
 		/* Only for recent unlocks */
-		unlockedDate = Util.getDate (obj, "unlocked_date");
+		unlocked = Util.getTime (obj, "unlocked_date");
+	}
+	
+	protected Item (ItemCodec.Input in, Type type)
+		throws IOException
+	{
+		this.type = type;
+		
+		character = in.readString ();
+		meaning = in.readString ();
+		level = in.readVarInt ();
+		
+		if (in.readBoolean ())
+			record = new StatsRecord (in);
+		
+		percentage = in.readVarInt ();
+		unlocked = in.readTime ();
+	}
+	
+	/**
+	 * Writes this item in a compact binary form, that can be read back
+	 * by the <code>deserialize (ItemCodec.Input)</code> method of the 
+	 * item factory. The item type is not written.
+	 * @param out the output stream
+	 */
+	public void write (ItemCodec.Output out)
+		throws IOException
+	{
+		out.writeString (character);
+		out.writeString (meaning);
+		out.writeVarInt (level);
+		
+		out.writeBoolean (record != null);
+		if (record != null)
+			record.write (out);
+		
+		out.writeVarInt (percentage);
+		out.writeTime (unlocked);
+	}
+	
+	/**
+	 * Returns the user specific data. The object is built on the first call,
+	 * so callers that just need the SRS level or the dates should
+	 * prefer the lighter accessors of this class.
+	 * @return the stats, or <code>null</code> for locked items
+	 */
+	public Stats getStats ()
+	{
+		if (stats == null && record != null)
+			stats = new Stats (record);
+		
+		return stats;
+	}
+	
+	/**
+	 * Tells whether user specific data is available. 
+	 * @return <code>false</code> for locked items
+	 */
+	public boolean hasStats ()
+	{
+		return record != null;
+	}
+	
+	/**
+	 * Returns the SRS level.
+	 * @return the level, or <code>null</code> for locked items
+	 */
+	public SRSLevel getSRS ()
+	{
+		return record != null ? SRSLevel.values () [record.srs] : null;
+	}
+	
+	public boolean isBurned ()
+	{
+		return record != null && record.burned;
+	}
+	
+	/**
+	 * Returns the unlock date, in epoch seconds.
+	 * @return the date, or zero if unknown
+	 */
+	long getUnlockedTime ()
+	{
+		return unlocked != 0 ? unlocked : record != null ? record.unlocked : 0;
+	}
+	
+	/**
+	 * Returns the available date, in epoch seconds.
+	 * @return the date, or zero if unknown
+	 */
+	long getAvailableTime ()
+	{
+		return record != null ? record.available : 0;
 	}
 	
 	public Date getUnlockedDate ()
 	{
-		return 	unlockedDate != null ? unlockedDate :
-					stats == null ? null : stats.unlockedDate;
+		return Util.toDate (getUnlockedTime ());
 	}
 	
 	public Date getAvailableDate ()
 	{
-		return stats == null ? null : stats.availableDate;
+		return Util.toDate (getAvailableTime ());
+	}
+
+	/**
+	 * Returns the burn date.
+	 * @return the date, or <code>null</code> if the item is not burned
+	 */
+	public Date getBurnedDate ()
+	{
+		return isBurned () ? Util.toDate (record.burnedAt) : null;
 	}
 
 	protected boolean hasReading ()
@@ -494,4 +909,15 @@ public abstract class Item implements Serializable {
 		return meaning.contains (s) ||
 				(character != null && character.contains (s));
 	}
+	
+	/**
+	 * Returns the strings that {@link #matches(String)} looks into.
+	 * Used to build the text index of an {@link ItemTable}, so
+	 * it must be kept consistent with that method.
+	 * @return the strings (may contain nulls)
+	 */
+	public String [] getSearchTerms ()
+	{
+		return new String [] { meaning, character };
+	}
 }
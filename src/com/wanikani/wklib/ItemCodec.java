@@ -0,0 +1,265 @@
+package com.wanikani.wklib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The compact binary form of items, libraries and caches. Compared to
+ * plain Java serialization, no class descriptors are written, integers
+ * are written as variable length quantities, dates as epoch seconds,
+ * and each string is written only once per stream: later occurrences
+ * are references to a string table, which is rebuilt while reading.
+ * As a side effect, equal strings share the same instance after
+ * they are read back.
+ * <p>
+ * Both ends work on streams, so items are encoded and decoded one at a time.
+ * Streams should start with a header (see {@link Output#writeHeader()}), so
+ * that data written by a different version of the codec is rejected.
+ */
+public class ItemCodec {
+
+	/**
+	 * The encoder.
+	 */
+	public static class Output extends DataOutputStream {
+
+		/// The string table
+		private Map<String, Integer> strings;
+
+		/**
+		 * Constructor.
+		 * @param os the output stream
+		 */
+		public Output (OutputStream os)
+		{
+			super (os);
+
+			strings = new HashMap<String, Integer> ();
+		}
+
+		/**
+		 * Writes the magic number and the version of the codec.
+		 */
+		public void writeHeader ()
+			throws IOException
+		{
+			writeInt (MAGIC);
+			writeByte (VERSION);
+		}
+
+		/**
+		 * Writes a non negative integer, seven bits per byte.
+		 * @param l the integer
+		 */
+		public void writeVarLong (long l)
+			throws IOException
+		{
+			while ((l & ~0x7FL) != 0) {
+				writeByte ((int) (l & 0x7F) | 0x80);
+				l >>>= 7;
+			}
+			writeByte ((int) l);
+		}
+
+		/**
+		 * Writes an integer. Small absolute values (including
+		 * negative ones) take less space.
+		 * @param i the integer
+		 */
+		public void writeVarInt (int i)
+			throws IOException
+		{
+			/* Zig-zag encoding, so that -1 is one byte long */
+			writeVarLong (((i << 1) ^ (i >> 31)) & 0xFFFFFFFFL);
+		}
+
+		/**
+		 * Writes a date, in epoch seconds.
+		 * @param time the date, or zero if not available
+		 */
+		public void writeTime (long time)
+			throws IOException
+		{
+			writeVarLong (time);
+		}
+
+		/**
+		 * Writes a (possibly <code>null</code>) string. If the
+		 * string has already been written, only its index in the
+		 * string table is output.
+		 * @param s the string
+		 */
+		public void writeString (String s)
+			throws IOException
+		{
+			Integer idx;
+
+			if (s == null) {
+				writeVarLong (0);
+				return;
+			}
+
+			idx = strings.get (s);
+			if (idx != null)
+				writeVarLong (((long) idx << 1) | 1);
+			else {
+				strings.put (s, strings.size ());
+				writeVarLong (2);
+				writeUTF (s);
+			}
+		}
+
+		/**
+		 * Writes a library. Each item is preceded by its type,
+		 * so libraries may contain any kind of items.
+		 * @param lib the library
+		 */
+		public void writeLibrary (ItemLibrary<? extends Item> lib)
+			throws IOException
+		{
+			writeVarLong (lib.list.size ());
+			for (Item i : lib.list) {
+				writeByte (i.type.ordinal ());
+				i.write (this);
+			}
+		}
+	}
+
+	/**
+	 * The decoder.
+	 */
+	public static class Input extends DataInputStream {
+
+		/// The string table
+		private List<String> strings;
+
+		/**
+		 * Constructor.
+		 * @param is the input stream
+		 */
+		public Input (InputStream is)
+		{
+			super (is);
+
+			strings = new Vector<String> ();
+		}
+
+		/**
+		 * Reads and checks the header.
+		 * @throws IOException if the stream was not written by
+		 * 	this version of the codec
+		 */
+		public void readHeader ()
+			throws IOException
+		{
+			if (readInt () != MAGIC || readByte () != VERSION)
+				throw new IOException ("Bad header");
+		}
+
+		public long readVarLong ()
+			throws IOException
+		{
+			long ans;
+			int b, shift;
+
+			ans = 0;
+			shift = 0;
+			do {
+				if (shift > 63)
+					throw new IOException ("Bad varint");
+				b = readUnsignedByte ();
+				ans |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			return ans;
+		}
+
+		public int readVarInt ()
+			throws IOException
+		{
+			int i;
+
+			i = (int) readVarLong ();
+
+			return (i >>> 1) ^ -(i & 1);
+		}
+
+		public long readTime ()
+			throws IOException
+		{
+			return readVarLong ();
+		}
+
+		public String readString ()
+			throws IOException
+		{
+			String ans;
+			long tag;
+
+			tag = readVarLong ();
+			if (tag == 0)
+				return null;
+
+			if ((tag & 1) != 0) {
+				if ((tag >> 1) >= strings.size ())
+					throw new IOException ("Bad string reference");
+				return strings.get ((int) (tag >> 1));
+			}
+
+			ans = readUTF ();
+			strings.add (ans);
+
+			return ans;
+		}
+
+		/**
+		 * Reads a library written by {@link Output#writeLibrary(ItemLibrary)}.
+		 * @return the library
+		 */
+		public ItemLibrary<Item> readLibrary ()
+			throws IOException
+		{
+			ItemLibrary<Item> ans;
+			long i, n;
+
+			ans = new ItemLibrary<Item> ();
+			n = readVarLong ();
+			for (i = 0; i < n; i++)
+				ans.add (Item.FACTORY.deserialize (this));
+
+			return ans;
+		}
+	}
+
+	/// Magic number
+	private static final int MAGIC = 0x574b4344;
+
+	/// Format version. Must be increased each time the format changes
+	public static final int VERSION = 1;
+
+}
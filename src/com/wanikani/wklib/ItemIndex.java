@@ -0,0 +1,405 @@
+package com.wanikani.wklib;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A text index of the items of an {@link ItemTable}. It maps each
+ * character and each pair of consecutive characters (bigram) of the
+ * searchable strings of an item (see {@link Item#getSearchTerms()})
+ * to the rows containing it.
+ * A search intersects the lists of the bigrams of the query, and
+ * then checks the few candidates left, so the result is exactly the
+ * same as calling {@link Item#matches(String)} on each item.
+ * A query may be made of several alternatives (e.g. some romaji and
+ * its kana translation), so that readings can be looked up without
+ * converting anything on a per item basis.
+ * The last result is remembered: when the user types one more character,
+ * only the rows that matched the previous query are checked again.
+ * <p>
+ * Rows are indexed lazily, on the first search that needs them, so
+ * this class costs nothing to item sets that are never searched.
+ * Like the table, this class is not thread safe.
+ */
+public class ItemIndex {
+
+	/**
+	 * The rows containing a given gram, in increasing order.
+	 */
+	private static class Postings {
+
+		int rows [];
+
+		int n;
+
+		public Postings ()
+		{
+			rows = new int [4];
+		}
+
+		public void add (int row)
+		{
+			int tmp [];
+
+			/* Same gram appearing twice in the same item */
+			if (n > 0 && rows [n - 1] == row)
+				return;
+
+			if (n == rows.length) {
+				tmp = new int [n * 2];
+				System.arraycopy (rows, 0, tmp, 0, n);
+				rows = tmp;
+			}
+			rows [n++] = row;
+		}
+	}
+
+	/// The table
+	private ItemTable table;
+
+	/// Grams to rows
+	private Map<Integer, Postings> grams;
+
+	/// The searchable strings of each row
+	private String terms [][];
+
+	/// Number of rows indexed so far
+	private int indexed;
+
+	/// The last full (i.e. starting from row zero) query
+	private String lastQuery [];
+
+	/// The result of the last full query
+	private int lastRows [];
+
+	/**
+	 * Constructor.
+	 * @param table the table to index
+	 */
+	ItemIndex (ItemTable table)
+	{
+		this.table = table;
+
+		clear ();
+	}
+
+	/**
+	 * Forgets everything. Called when the table is cleared.
+	 */
+	void clear ()
+	{
+		grams = new HashMap<Integer, Postings> ();
+		terms = new String [0][];
+		indexed = 0;
+		lastQuery = null;
+		lastRows = null;
+	}
+
+	private static Integer unigram (char c)
+	{
+		return Integer.valueOf (c);
+	}
+
+	private static Integer bigram (char c1, char c2)
+	{
+		/* c1 is never zero, so bigrams do not collide with unigrams */
+		return Integer.valueOf ((c1 << 16) | c2);
+	}
+
+	private void post (Integer gram, int row)
+	{
+		Postings p;
+
+		p = grams.get (gram);
+		if (p == null)
+			grams.put (gram, p = new Postings ());
+		p.add (row);
+	}
+
+	/**
+	 * Indexes the rows that have been added to the table since last time.
+	 */
+	private void update ()
+	{
+		String tmp [][], rterms [];
+		int row, i;
+
+		if (indexed == table.size ())
+			return;
+
+		if (terms.length < table.size ()) {
+			tmp = new String [Math.max (table.size (), terms.length * 2)][];
+			System.arraycopy (terms, 0, tmp, 0, indexed);
+			terms = tmp;
+		}
+
+		for (row = indexed; row < table.size (); row++) {
+			rterms = table.get (row).getSearchTerms ();
+			terms [row] = rterms;
+			for (String s : rterms) {
+				if (s == null)
+					continue;
+				for (i = 0; i < s.length (); i++) {
+					post (unigram (s.charAt (i)), row);
+					if (i > 0)
+						post (bigram (s.charAt (i - 1), s.charAt (i)), row);
+				}
+			}
+		}
+
+		indexed = table.size ();
+		/* New rows may match the last query */
+		lastQuery = null;
+		lastRows = null;
+	}
+
+	/**
+	 * Tells whether one of the searchable strings of a row contains a string.
+	 * @param row the row
+	 * @param s the string
+	 * @return <code>true</code> if it does
+	 */
+	private boolean contains (int row, String s)
+	{
+		for (String t : terms [row])
+			if (t != null && t.contains (s))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Intersects two sorted lists of rows.
+	 * @param a the first list
+	 * @param n the number of elements of the first list
+	 * @param b the second list
+	 * @return the number of elements left in <code>a</code>
+	 */
+	private static int intersect (int a [], int n, Postings b)
+	{
+		int i, j, k;
+
+		i = j = k = 0;
+		while (i < n && j < b.n) {
+			if (a [i] < b.rows [j])
+				i++;
+			else if (a [i] > b.rows [j])
+				j++;
+			else {
+				a [k++] = a [i++];
+				j++;
+			}
+		}
+
+		return k;
+	}
+
+	/**
+	 * Tells whether one of the searchable strings of a row contains
+	 * at least one of a set of strings.
+	 * @param row the row
+	 * @param qs the strings
+	 * @return <code>true</code> if it does
+	 */
+	private boolean contains (int row, String qs [])
+	{
+		for (String q : qs)
+			if (contains (row, q))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Tells whether the result of a query is a subset of the
+	 * result of the last query.
+	 * @param qs the query
+	 * @return <code>true</code> if each string contains the corresponding
+	 * 	string of the last query
+	 */
+	private boolean narrows (String qs [])
+	{
+		int i;
+
+		if (lastQuery == null || lastQuery.length != qs.length)
+			return false;
+
+		for (i = 0; i < qs.length; i++)
+			if (!qs [i].contains (lastQuery [i]))
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Returns the candidate rows for a string, i.e. the rows that contain
+	 * all its grams.
+	 * @param s the string
+	 * @param from the first row to consider
+	 * @return the candidates, in increasing order
+	 */
+	private int [] candidates (String s, int from)
+	{
+		int rows [], ans [];
+		Postings p;
+		int i, n;
+
+		p = grams.get (s.length () == 1 ? unigram (s.charAt (0)) :
+					   bigram (s.charAt (0), s.charAt (1)));
+		if (p == null)
+			return new int [0];
+
+		rows = new int [p.n];
+		n = 0;
+		for (i = 0; i < p.n; i++)
+			if (p.rows [i] >= from)
+				rows [n++] = p.rows [i];
+
+		for (i = 2; i < s.length () && n > 0; i++) {
+			p = grams.get (bigram (s.charAt (i - 1), s.charAt (i)));
+			n = p != null ? intersect (rows, n, p) : 0;
+		}
+
+		ans = new int [n];
+		System.arraycopy (rows, 0, ans, 0, n);
+
+		return ans;
+	}
+
+	/**
+	 * Merges two sorted lists of rows, removing duplicates.
+	 * @param a the first list
+	 * @param b the second list
+	 * @return the union
+	 */
+	private static int [] union (int a [], int b [])
+	{
+		int i, j, k, ans [], tmp [];
+
+		ans = new int [a.length + b.length];
+		i = j = k = 0;
+		while (i < a.length && j < b.length) {
+			if (a [i] < b [j])
+				ans [k++] = a [i++];
+			else if (a [i] > b [j])
+				ans [k++] = b [j++];
+			else {
+				ans [k++] = a [i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			ans [k++] = a [i++];
+		while (j < b.length)
+			ans [k++] = b [j++];
+
+		if (k == ans.length)
+			return ans;
+
+		tmp = new int [k];
+		System.arraycopy (ans, 0, tmp, 0, k);
+
+		return tmp;
+	}
+
+	/**
+	 * Expands the text typed by the user into the alternatives to look
+	 * up with {@link #search(String[], int)}. If the text is romaji, its 
+	 * kana translation is added, so readings can be found as well. 
+	 * Trailing chars that are not a complete syllable yet (including a 
+	 * final "n", that may become "na", "ni", ...) are left out of the 
+	 * translation, so results narrow down smoothly while the user types.
+	 * @param ime the IME used for the translation
+	 * @param s the text
+	 * @return the alternatives
+	 */
+	public static String [] queries (JapaneseIME ime, String s)
+	{
+		String kana;
+		int i;
+		
+		kana = ime.parse (s);
+		if (s.endsWith ("n") && kana.endsWith ("ん"))
+			kana = kana.substring (0, kana.length () - 1);
+		
+		i = kana.length ();
+		while (i > 0 && kana.charAt (i - 1) < 128)
+			i--;
+		kana = kana.substring (0, i);
+		
+		return kana.length () > 0 && !kana.equals (s) ? 
+				new String [] { s, kana } : new String [] { s };
+	}
+
+	/**
+	 * Returns the rows whose searchable strings contain a given
+	 * (non empty) string.
+	 * @param s the string
+	 * @param from the first row to consider
+	 * @return the matching rows, in increasing order
+	 */
+	public int [] search (String s, int from)
+	{
+		return search (new String [] { s }, from);
+	}
+
+	/**
+	 * Returns the rows whose searchable strings contain at least
+	 * one of a set of alternatives (e.g. the text typed by the user, and its
+	 * translation into kana).
+	 * @param qs the alternatives. None of them may be empty
+	 * @param from the first row to consider
+	 * @return the matching rows, in increasing order
+	 */
+	public int [] search (String qs [], int from)
+	{
+		int rows [], ans [];
+		int i, k;
+
+		update ();
+
+		if (from == 0 && narrows (qs))
+			/* Narrowing the previous query: only old results can match */
+			rows = lastRows;
+		else {
+			rows = candidates (qs [0], from);
+			for (i = 1; i < qs.length; i++)
+				rows = union (rows, candidates (qs [i], from));
+		}
+
+		/* Grams don't care about their order, so we still need to check */
+		ans = new int [rows.length];
+		k = 0;
+		for (i = 0; i < rows.length; i++)
+			if (contains (rows [i], qs))
+				ans [k++] = rows [i];
+
+		rows = ans;
+		ans = new int [k];
+		System.arraycopy (rows, 0, ans, 0, k);
+
+		if (from == 0) {
+			lastQuery = qs.clone ();
+			lastRows = ans;
+		}
+
+		return ans;
+	}
+}
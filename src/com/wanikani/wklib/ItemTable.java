@@ -0,0 +1,624 @@
+package com.wanikani.wklib;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Sort and filter columns of a set of items. The fields that are looked at
+ * when sorting, filtering and computing statistics are copied into
+ * primitive arrays, so that those operations can walk thousands of items
+ * without dereferencing <code>Stats</code> objects, unboxing integers or
+ * calling <code>Date</code> methods. Items are identified by their index
+ * in the table, and the original {@link Item} objects are still available
+ * through {@link #get(int)}, e.g. for display purposes.
+ * Character and meaning strings are interned in a per-table pool, so that
+ * equal strings (e.g. a radical and a kanji sharing the same character)
+ * are represented by the same object.
+ * <p>
+ * The columns are kept <i>in addition to</i> the items, which are still
+ * referenced by {@link ItemLibrary}, the items cache and the list rows.
+ * So this class trades memory for speed: the heap grows by about 42 bytes
+ * per item, plus the facet bitsets and the text index.
+ * <p>
+ * This class is not thread safe.
+ */
+public class ItemTable {
+
+	/// Value of the SRS column for items that have no stats (i.e. locked)
+	public static final int NO_SRS = -1;
+
+	/// Value of the percentage column when it is unknown
+	public static final int NO_PERCENTAGE = -1;
+
+	/// Value of the date columns when the date is unknown
+	public static final long NO_DATE = 0;
+
+	/// Initial capacity
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/// Cached values of the type enum
+	private static final Item.Type TYPES [] = Item.Type.values ();
+
+	/// Cached values of the SRS enum
+	private static final SRSLevel SRSES [] = SRSLevel.values ();
+
+	/// Number of facets of each item type: one per SRS level, plus the items with no SRS level
+	public static final int SRS_FACETS = SRSES.length + 1;
+
+	/// Number of facets
+	public static final int FACETS = TYPES.length * SRS_FACETS;
+
+	/// The original items
+	Item items [];
+
+	/// Item type ordinals
+	byte type [];
+
+	/// Levels
+	int level [];
+
+	/// SRS level ordinals, or {@link #NO_SRS}
+	int srs [];
+
+	/// Percentages, or {@link #NO_PERCENTAGE}
+	int percentage [];
+
+	/// Unlock dates, in epoch seconds, or {@link #NO_DATE}
+	long unlocked [];
+
+	/// Available dates, in epoch seconds, or {@link #NO_DATE}
+	long available [];
+
+	/// Burned flags
+	boolean burned [];
+
+	/// Characters (may contain nulls, for image radicals)
+	String character [];
+
+	/// Meanings
+	String meaning [];
+
+	/// Number of rows
+	int size;
+
+	/// The strings pool
+	private Map<String, String> pool;
+
+	/// The text index
+	private ItemIndex index;
+
+	/// Facet bitsets: bit <i>row</i> of <code>facets [f]</code> is set iff the row belongs to facet <i>f</i>
+	long facets [][];
+
+	/**
+	 * Constructor. Builds an empty table.
+	 */
+	public ItemTable ()
+	{
+		pool = new HashMap<String, String> ();
+		index = new ItemIndex (this);
+		allocate (DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor. Builds a table containing a list of items.
+	 * @param l the items
+	 */
+	public ItemTable (List<? extends Item> l)
+	{
+		pool = new HashMap<String, String> ();
+		index = new ItemIndex (this);
+		allocate (Math.max (DEFAULT_CAPACITY, l.size ()));
+		addAll (l);
+	}
+
+	private void allocate (int capacity)
+	{
+		items = new Item [capacity];
+		type = new byte [capacity];
+		level = new int [capacity];
+		srs = new int [capacity];
+		percentage = new int [capacity];
+		unlocked = new long [capacity];
+		available = new long [capacity];
+		burned = new boolean [capacity];
+		character = new String [capacity];
+		meaning = new String [capacity];
+		facets = new long [FACETS][words (capacity)];
+	}
+
+	private void ensureCapacity (int capacity)
+	{
+		long tmp [];
+		int i, n;
+
+		if (capacity <= items.length)
+			return;
+
+		n = Math.max (capacity, items.length * 2);
+		items = grow (items, new Item [n]);
+		type = grow (type, new byte [n]);
+		level = grow (level, new int [n]);
+		srs = grow (srs, new int [n]);
+		percentage = grow (percentage, new int [n]);
+		unlocked = grow (unlocked, new long [n]);
+		available = grow (available, new long [n]);
+		burned = grow (burned, new boolean [n]);
+		character = grow (character, new String [n]);
+		meaning = grow (meaning, new String [n]);
+		for (i = 0; i < FACETS; i++) {
+			tmp = new long [words (n)];
+			System.arraycopy (facets [i], 0, tmp, 0, words (size));
+			facets [i] = tmp;
+		}
+	}
+
+	private static int words (int bits)
+	{
+		return (bits + 63) >> 6;
+	}
+
+	private <A> A grow (A from, A to)
+	{
+		System.arraycopy (from, 0, to, 0, size);
+
+		return to;
+	}
+
+	private String intern (String s)
+	{
+		String ans;
+
+		if (s == null)
+			return null;
+
+		ans = pool.get (s);
+		if (ans == null) {
+			pool.put (s, s);
+			ans = s;
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Appends an item.
+	 * @param i the item
+	 * @return its row
+	 */
+	public int add (Item i)
+	{
+		int row;
+
+		ensureCapacity (size + 1);
+
+		row = size++;
+		items [row] = i;
+		type [row] = (byte) i.type.ordinal ();
+		level [row] = i.level;
+		srs [row] = i.record != null ? i.record.srs : NO_SRS;
+		percentage [row] = i.percentage != null ? i.percentage : NO_PERCENTAGE;
+		unlocked [row] = i.getUnlockedTime ();
+		available [row] = i.getAvailableTime ();
+		burned [row] = i.isBurned ();
+		character [row] = intern (i.character);
+		meaning [row] = intern (i.meaning);
+		facets [facet (type [row], srs [row])][row >> 6] |= 1L << (row & 63);
+
+		return row;
+	}
+
+	/**
+	 * Appends a list of items.
+	 * @param l the items
+	 */
+	public void addAll (List<? extends Item> l)
+	{
+		ensureCapacity (size + l.size ());
+		for (Item i : l)
+			add (i);
+	}
+
+	/**
+	 * Removes all the items. The capacity is retained.
+	 */
+	public void clear ()
+	{
+		int i;
+
+		for (i = 0; i < size; i++) {
+			items [i] = null;
+			character [i] = null;
+			meaning [i] = null;
+		}
+		for (i = 0; i < FACETS; i++)
+			Arrays.fill (facets [i], 0, words (size), 0);
+		size = 0;
+		pool.clear ();
+		index.clear ();
+	}
+
+	/**
+	 * Returns the text index of this table. 
+	 * @return the index
+	 */
+	public ItemIndex getIndex ()
+	{
+		return index;
+	}
+
+	public int size ()
+	{
+		return size;
+	}
+
+	public boolean isEmpty ()
+	{
+		return size == 0;
+	}
+
+	public Item get (int row)
+	{
+		return items [row];
+	}
+
+	public Item.Type getType (int row)
+	{
+		return TYPES [type [row]];
+	}
+
+	public int getTypeOrdinal (int row)
+	{
+		return type [row];
+	}
+
+	public int getLevel (int row)
+	{
+		return level [row];
+	}
+
+	public int getSRSOrdinal (int row)
+	{
+		return srs [row];
+	}
+
+	public SRSLevel getSRS (int row)
+	{
+		return srs [row] != NO_SRS ? SRSES [srs [row]] : null;
+	}
+
+	public int getPercentage (int row)
+	{
+		return percentage [row];
+	}
+
+	public long getUnlocked (int row)
+	{
+		return unlocked [row];
+	}
+
+	public long getAvailable (int row)
+	{
+		return available [row];
+	}
+
+	public boolean isBurned (int row)
+	{
+		return burned [row];
+	}
+
+	public String getCharacter (int row)
+	{
+		return character [row];
+	}
+
+	public String getMeaning (int row)
+	{
+		return meaning [row];
+	}
+
+	/**
+	 * Returns the items of a set of rows.
+	 * @param rows the rows
+	 * @param n the number of rows to consider
+	 * @return a new list
+	 */
+	public List<Item> getItems (int rows [], int n)
+	{
+		List<Item> ans;
+		int i;
+
+		ans = new Vector<Item> (n);
+		for (i = 0; i < n; i++)
+			ans.add (items [rows [i]]);
+
+		return ans;
+	}
+
+	/**
+	 * Returns the rows of all the items.
+	 * @return a new array
+	 */
+	public int [] getRows ()
+	{
+		return getRows (0);
+	}
+
+	/**
+	 * Returns the rows of the items starting at a given row, e.g. 
+	 * the ones that have just been added.
+	 * @param from the first row
+	 * @return a new array
+	 */
+	public int [] getRows (int from)
+	{
+		int ans [];
+		int i;
+
+		ans = new int [size - from];
+		for (i = 0; i < ans.length; i++)
+			ans [i] = from + i;
+
+		return ans;
+	}
+
+	/**
+	 * Returns the facet of a type and SRS level pair.
+	 * @param type the item type ordinal
+	 * @param srs the SRS level ordinal, or {@link #NO_SRS}
+	 * @return an index between zero and {@link #FACETS}
+	 */
+	public static int facet (int type, int srs)
+	{
+		return type * SRS_FACETS + srs + 1;
+	}
+
+	/**
+	 * Returns the bitset of the rows belonging to any of a set of facets.
+	 * This is a simple OR of the bitsets precomputed when items are added,
+	 * so no item is accessed.
+	 * @param selected which facets to include, indexed as in {@link #facet(int, int)}
+	 * @return a new bitset, covering all the rows
+	 */
+	public long [] select (boolean selected [])
+	{
+		long ans [], f [];
+		int i, j;
+
+		ans = new long [words (size)];
+		for (i = 0; i < FACETS; i++) {
+			if (!selected [i])
+				continue;
+			f = facets [i];
+			for (j = 0; j < ans.length; j++)
+				ans [j] |= f [j];
+		}
+
+		return ans;
+	}
+
+	/**
+	 * Returns the rows of a bitset, starting at a given row.
+	 * @param bits the bitset
+	 * @param from the first row
+	 * @return the rows, in increasing order
+	 */
+	public int [] getRows (long bits [], int from)
+	{
+		int ans [];
+		long w;
+		int i, n;
+
+		n = 0;
+		for (i = from >> 6; i < bits.length; i++)
+			n += Long.bitCount (mask (bits, i, from));
+
+		ans = new int [n];
+		n = 0;
+		for (i = from >> 6; i < bits.length; i++)
+			for (w = mask (bits, i, from); w != 0; w &= w - 1)
+				ans [n++] = (i << 6) + Long.numberOfTrailingZeros (w);
+
+		return ans;
+	}
+
+	private static long mask (long bits [], int i, int from)
+	{
+		return i == from >> 6 ? bits [i] & (-1L << (from & 63)) : bits [i];
+	}
+
+	/**
+	 * Keeps only the rows of a list that are set in a bitset.
+	 * @param rows the rows
+	 * @param bits the bitset
+	 * @return a new array, in the same order as <code>rows</code>
+	 */
+	public static int [] retain (int rows [], long bits [])
+	{
+		int ans [], tmp [];
+		int i, n;
+
+		tmp = new int [rows.length];
+		n = 0;
+		for (i = 0; i < rows.length; i++)
+			if ((bits [rows [i] >> 6] & (1L << (rows [i] & 63))) != 0)
+				tmp [n++] = rows [i];
+
+		ans = new int [n];
+		System.arraycopy (tmp, 0, ans, 0, n);
+
+		return ans;
+	}
+
+	/**
+	 * Returns the number of bits of the keys of a comparator.
+	 * @param cmp the comparator
+	 * @return the number of bits, or a negative number if keys can't be used
+	 */
+	private int keyBits (Comparator<Item> cmp)
+	{
+		int bits;
+
+		bits = cmp instanceof Item.KeyedComparator ?
+				((Item.KeyedComparator) cmp).bits () : -1;
+
+		return bits >= 0 && bits + rowBits () <= 63 ? bits : -1;
+	}
+
+	private int rowBits ()
+	{
+		return 32 - Integer.numberOfLeadingZeros (size);
+	}
+
+	/**
+	 * Sorts a set of rows. 
+	 * The sort is stable, provided that the rows are in increasing order.
+	 * If the comparator is a {@link Item.KeyedComparator}, and the keys
+	 * leave enough room for the row number, keys and rows are packed
+	 * into a <code>long</code> array that is sorted as a primitive array.
+	 * Otherwise we fall back to a plain <code>Collections.sort</code>.
+	 * @param rows the rows
+	 * @param cmp the comparator
+	 * @return a new array, containing the sorted rows
+	 */
+	public int [] sortRows (int rows [], final Comparator<Item> cmp)
+	{
+		Item.KeyedComparator kcmp;
+		List<Integer> l;
+		long keys [], mask;
+		int i, rbits, ans [];
+
+		ans = new int [rows.length];
+		if (keyBits (cmp) < 0) {
+			l = new Vector<Integer> (rows.length);
+			for (i = 0; i < rows.length; i++)
+				l.add (rows [i]);
+			Collections.sort (l, new Comparator<Integer> () {
+				public int compare (Integer a, Integer b)
+				{
+					return cmp.compare (items [a], items [b]);
+				}
+			});
+			for (i = 0; i < ans.length; i++)
+				ans [i] = l.get (i);
+
+			return ans;
+		}
+
+		kcmp = (Item.KeyedComparator) cmp;
+		rbits = rowBits ();
+		keys = new long [rows.length];
+		for (i = 0; i < rows.length; i++)
+			keys [i] = (kcmp.key (this, rows [i]) << rbits) | rows [i];
+
+		Arrays.sort (keys);
+
+		mask = (1L << rbits) - 1;
+		for (i = 0; i < keys.length; i++)
+			ans [i] = (int) (keys [i] & mask);
+
+		return ans;
+	}
+
+	/**
+	 * Merges two sorted sets of rows. If two rows compare equal, the one
+	 * belonging to the first set goes first, so if all the rows of the
+	 * second set are greater than the rows of the first one (as it happens
+	 * when new items are appended), the result is the same as
+	 * sorting the union of the two sets with {@link #sortRows(int[], Comparator)}.
+	 * @param a the first set
+	 * @param b the second set
+	 * @param cmp the comparator both sets are sorted with
+	 * @return a new array, containing the merged rows
+	 */
+	public int [] merge (int a [], int b [], Comparator<Item> cmp)
+	{
+		Item.KeyedComparator kcmp;
+		int i, j, k, ans [];
+		boolean keyed, first;
+		long ka, kb;
+
+		ans = new int [a.length + b.length];
+		keyed = keyBits (cmp) >= 0;
+		kcmp = keyed ? (Item.KeyedComparator) cmp : null;
+		i = j = k = 0;
+		ka = kb = 0;
+		if (keyed && i < a.length)
+			ka = kcmp.key (this, a [i]);
+		if (keyed && j < b.length)
+			kb = kcmp.key (this, b [j]);
+		while (i < a.length && j < b.length) {
+			if (keyed)
+				first = ka <= kb;
+			else
+				first = cmp.compare (items [a [i]], items [b [j]]) <= 0;
+			if (first) {
+				ans [k++] = a [i++];
+				if (keyed && i < a.length)
+					ka = kcmp.key (this, a [i]);
+			} else {
+				ans [k++] = b [j++];
+				if (keyed && j < b.length)
+					kb = kcmp.key (this, b [j]);
+			}
+		}
+		while (i < a.length)
+			ans [k++] = a [i++];
+		while (j < b.length)
+			ans [k++] = b [j++];
+
+		return ans;
+	}
+
+	/**
+	 * Sorts a set of rows, returning the corresponding items.
+	 * @param rows the rows
+	 * @param cmp the comparator
+	 * @return a new sorted list
+	 * @see #sortRows(int[], Comparator)
+	 */
+	public List<Item> sort (int rows [], Comparator<Item> cmp)
+	{
+		rows = sortRows (rows, cmp);
+
+		return getItems (rows, rows.length);
+	}
+
+	/**
+	 * Returns all the items, in insertion order.
+	 * @return a new list
+	 */
+	public List<Item> getItems ()
+	{
+		List<Item> ans;
+		int i;
+
+		ans = new Vector<Item> (size);
+		for (i = 0; i < size; i++)
+			ans.add (items [i]);
+
+		return ans;
+	}
+}
@@ -1,84 +1,474 @@
 package com.wanikani.wklib;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Hashtable;
-import java.util.List;
-import java.util.Map;
-import java.util.Vector;
 
+/**
+ * The in-memory cache of the items of each level. It is serializable,
+ * so it can be saved in a bundle, however its serialized form is just an 
+ * {@link ItemCodec} stream, which is much smaller and faster than 
+ * serializing the items one by one.
+ */
 public class ItemsCache implements Serializable {
 	
-	public static final long serialVersionUID = 1L;
+	public static final long serialVersionUID = 2L;
 	
-	public class LevelCache<T extends Item> implements Serializable {
+	/**
+	 * Performs the actual request, when some levels are not in the cache.
+	 */
+	public interface Loader<T extends Item> {
 		
-		public static final long serialVersionUID = 1L;		
+		public ItemLibrary<T> load (int levels [])
+			throws IOException;
 		
-		Map<Integer, ItemLibrary<T>> ht;
+	}
+	
+	/**
+	 * A request in progress. Callers that need one of its levels
+	 * wait for it, instead of issuing a request of their own.
+	 */
+	static class Flight<T extends Item> {
+		
+		ItemLibrary<T> lib;
+		
+		IOException e;
 		
-		public LevelCache ()
+		boolean done;
+		
+		public synchronized void complete (ItemLibrary<T> lib, IOException e)
 		{
-			ht = new Hashtable<Integer, ItemLibrary<T>> ();
+			this.lib = lib;
+			this.e = e;
+			done = true;
+			
+			notifyAll ();
 		}
 		
-		public synchronized ItemLibrary<T> get (int level)
+		public synchronized ItemLibrary<T> await ()
+			throws IOException
 		{
-			return ht.get (level);
+			while (!done) {
+				try {
+					wait ();
+				} catch (InterruptedException e) {
+					throw new IOException ("Interrupted");
+				}
+			}
+			
+			if (e != null)
+				throw e;
+			
+			return lib;
 		}
+	}
+	
+	/**
+	 * The cache of one item type. Levels are dense and small, so
+	 * libraries are kept in an array indexed by level.
+	 * The array is never modified once published: writers (which are
+	 * serialized by the monitor) replace it with an updated copy, so
+	 * readers need no locking at all.
+	 */
+	public class LevelCache<T extends Item> {
+		
+		/// Level to library, copied on write. Entries may be <code>null</code>
+		volatile ItemLibrary<T> levels [];
+		
+		Item.Type type;
 		
+		/// Level to the request fetching it, if any. Guarded by the monitor
+		transient Flight<T> flights [];
 		
-		public synchronized int [] get (ItemLibrary<T> lib, int level [])
+		@SuppressWarnings ("unchecked")
+		public LevelCache (Item.Type type)
 		{
-			List<Integer> missing;
-			ItemLibrary<T> clib;
+			this.type = type;
+			
+			levels = (ItemLibrary<T> []) new ItemLibrary<?> [0];
+		}
+		
+		private ItemLibrary<T> lookup (int level)
+		{
+			ItemLibrary<T> l [];
+			
+			l = levels;
+			
+			return level >= 0 && level < l.length ? l [level] : null;
+		}
+		
+		/**
+		 * Publishes a set of libraries.
+		 * @param libs level to library. <code>null</code> entries are skipped
+		 */
+		@SuppressWarnings ("unchecked")
+		private synchronized void publish (ItemLibrary<T> libs [])
+		{
+			ItemLibrary<T> l [];
 			int i;
 			
-			missing = new Vector<Integer> (level.length);
+			l = levels;
+			if (l.length < libs.length) {
+				l = (ItemLibrary<T> []) new ItemLibrary<?> [libs.length];
+				System.arraycopy (levels, 0, l, 0, levels.length);
+			} else
+				l = l.clone ();
+			
+			for (i = 0; i < libs.length; i++)
+				if (libs [i] != null)
+					l [i] = libs [i];
+			
+			levels = l;
+		}
+		
+		@SuppressWarnings ("unchecked")
+		private ItemLibrary<T> loadAndPublish (int level)
+		{
+			ItemLibrary<T> ans, libs [];
+			
+			ans = load (level);
+			if (ans != null) {
+				libs = (ItemLibrary<T> []) new ItemLibrary<?> [level + 1];
+				libs [level] = ans;
+				publish (libs);
+			}
+			
+			return ans;
+		}
+		
+		public ItemLibrary<T> get (int level)
+		{
+			ItemLibrary<T> ans;
+			
+			ans = lookup (level);
+			if (ans == null)
+				ans = loadAndPublish (level);
+			
+			return ans;
+		}
+		
+		/**
+		 * Adds the cached items of a set of levels to a library.
+		 * @param lib the library
+		 * @param level the levels
+		 * @return the levels that are not in the cache 
+		 */
+		public int [] get (ItemLibrary<T> lib, int level [])
+		{
+			ItemLibrary<T> clib;
+			int missing [], ans [];
+			int i, n;
+			
+			missing = new int [level.length];
+			n = 0;
 			for (i = 0; i < level.length; i++) {
-				clib = ht.get (level [i]);
+				clib = get (level [i]);
 				if (clib != null)
 					lib.add (clib);
 				else
-					missing.add (level [i]);
+					missing [n++] = level [i];
 			}
 			
-			level = new int [missing.size ()];
-			for (i = 0; i < level.length; i++)
-				level [i] = missing.get (i);
+			if (n == missing.length)
+				return missing;
+			
+			ans = new int [n];
+			System.arraycopy (missing, 0, ans, 0, n);
 			
-			return level;
+			return ans;
 		}
 		
-		public synchronized ItemLibrary<T> put (ItemLibrary<T> lib)
+		@SuppressWarnings ("unchecked")
+		public ItemLibrary<T> put (ItemLibrary<T> lib)
 		{
-			Map<Integer, ItemLibrary<T>> map;
-			ItemLibrary<T> tlib;
+			ItemLibrary<T> libs [];
+			DiskItemsCache store;
+			int i, max;
 			
-			map = new Hashtable<Integer, ItemLibrary<T>> ();
+			max = 0;
+			for (T t : lib.list)
+				max = Math.max (max, t.level);
+			
+			libs = (ItemLibrary<T> []) new ItemLibrary<?> [max + 1];
 			for (T t : lib.list) {
-				tlib = map.get (t.level);
-				if (tlib == null)
-					map.put (t.level, tlib = new ItemLibrary<T> ());
-				tlib.list.add (t);
+				if (t.level < 0)
+					continue;
+				if (libs [t.level] == null)
+					libs [t.level] = new ItemLibrary<T> ();
+				libs [t.level].list.add (t);
 			}
 			
-			ht.putAll (map);
+			publish (libs);
+			
+			store = ItemsCache.this.store;
+			if (store != null && type != null)
+				for (i = 0; i < libs.length; i++)
+					if (libs [i] != null)
+						store.store (type, i, libs [i]);
 			
 			return lib;
 		}
 		
+		/**
+		 * Returns the items of a set of levels, calling the loader for
+		 * the levels that are not cached. If another thread is already
+		 * fetching some of them, we wait for its result instead of
+		 * issuing a duplicate request.
+		 * @param loader the loader
+		 * @param level the levels
+		 * @return the items
+		 * @throws IOException if our request, or one we waited for, failed
+		 */
+		@SuppressWarnings ("unchecked")
+		public ItemLibrary<T> get (Loader<T> loader, int level [])
+			throws IOException
+		{
+			Flight<T> waiting [], tmp [];
+			ItemLibrary<T> ans;
+			Flight<T> flight;
+			int i, j, n, max;
+			
+			ans = new ItemLibrary<T> ();
+			level = get (ans, level);
+			if (level.length == 0)
+				return ans;
+			
+			max = 0;
+			for (i = 0; i < level.length; i++)
+				max = Math.max (max, level [i]);
+			
+			/* Level to the flight we are waiting for */
+			waiting = null;
+			flight = new Flight<T> ();
+			n = 0;
+			synchronized (this) {
+				if (flights == null || flights.length <= max) {
+					tmp = (Flight<T> []) new Flight<?> [max + 1];
+					if (flights != null)
+						System.arraycopy (flights, 0, tmp, 0, flights.length);
+					flights = tmp;
+				}
+				for (i = 0; i < level.length; i++) {
+					if (flights [level [i]] != null) {
+						if (waiting == null)
+							waiting = (Flight<T> []) new Flight<?> [max + 1];
+						waiting [level [i]] = flights [level [i]];
+					} else if (lookup (level [i]) != null)
+						/* Published while we were not holding the lock */
+						ans.add (lookup (level [i]));
+					else {
+						flights [level [i]] = flight;
+						level [n++] = level [i];
+					}
+				}
+			}
+			
+			if (n > 0)
+				ans.add (fly (loader, flight, level, n));
+			
+			if (waiting != null)
+				for (i = 0; i <= max; i++) {
+					flight = waiting [i];
+					if (flight == null)
+						continue;
+					for (T t : flight.await ().list)
+						if (t.level >= 0 && t.level <= max && waiting [t.level] == flight)
+							ans.list.add (t);
+					/* Don't scan the same flight twice */
+					for (j = i; j <= max; j++)
+						if (waiting [j] == flight)
+							waiting [j] = null;
+				}
+			
+			return ans;
+		}
+		
+		private ItemLibrary<T> fly (Loader<T> loader, Flight<T> flight, 
+									int level [], int n)
+			throws IOException
+		{
+			ItemLibrary<T> lib;
+			IOException err;
+			int levels [];
+			int i;
+			
+			levels = new int [n];
+			System.arraycopy (level, 0, levels, 0, n);
+			lib = null;
+			err = null;
+			try {
+				lib = put (loader.load (levels));
+			} catch (IOException e) {
+				err = e;
+				throw e;
+			} finally {
+				synchronized (this) {
+					for (i = 0; i < n; i++)
+						flights [levels [i]] = null;
+				}
+				/* Waiters must be woken up even on unchecked exceptions */
+				if (lib == null && err == null)
+					err = new IOException ("Request failed");
+				flight.complete (lib, err);
+			}
+			
+			return lib;
+		}
+		
+		/**
+		 * Writes all the cached levels.
+		 * @param out the output stream
+		 */
+		public void write (ItemCodec.Output out)
+			throws IOException
+		{
+			ItemLibrary<T> l [];
+			int i, n;
+			
+			l = levels;
+			n = 0;
+			for (i = 0; i < l.length; i++)
+				if (l [i] != null)
+					n++;
+			
+			out.writeVarInt (n);
+			for (i = 0; i < l.length; i++)
+				if (l [i] != null) {
+					out.writeVarInt (i);
+					out.writeLibrary (l [i]);
+				}
+		}
+		
+		/**
+		 * Reads a set of levels written by {@link #write(ItemCodec.Output)},
+		 * and adds them to the cache. Nothing is written to the persistent tier.
+		 * @param in the input stream
+		 */
+		@SuppressWarnings ("unchecked")
+		public void read (ItemCodec.Input in)
+			throws IOException
+		{
+			ItemLibrary<T> libs [], tmp [];
+			int i, n, level;
+			
+			libs = (ItemLibrary<T> []) new ItemLibrary<?> [0];
+			n = in.readVarInt ();
+			for (i = 0; i < n; i++) {
+				level = in.readVarInt ();
+				if (level < 0)
+					throw new IOException ("Bad level: " + level);
+				if (level >= libs.length) {
+					tmp = (ItemLibrary<T> []) new ItemLibrary<?> [level + 1];
+					System.arraycopy (libs, 0, tmp, 0, libs.length);
+					libs = tmp;
+				}
+				libs [level] = (ItemLibrary<T>) (ItemLibrary<?>) in.readLibrary ();
+			}
+			
+			publish (libs);
+		}
+		
+		@SuppressWarnings ("unchecked")
+		private ItemLibrary<T> load (int level)
+		{
+			DiskItemsCache store;
+			
+			store = ItemsCache.this.store;
+			
+			if (store == null || type == null)
+				return null;
+			
+			return (ItemLibrary<T>) (ItemLibrary<?>) store.load (type, level);
+		}
+		
 	}
 
-	LevelCache<Radical> radicals;
+	transient LevelCache<Radical> radicals;
+	
+	transient LevelCache<Kanji> kanji;
 	
-	LevelCache<Kanji> kanji;
+	transient LevelCache<Vocabulary> vocab;
 	
-	LevelCache<Vocabulary> vocab;
+	transient DiskItemsCache store;
 	
 	public ItemsCache ()
 	{
-		radicals = new LevelCache<Radical> ();
-		kanji = new LevelCache<Kanji> ();
-		vocab = new LevelCache<Vocabulary> ();
+		init ();
+	}
+	
+	private void init ()
+	{
+		radicals = new LevelCache<Radical> (Item.Type.RADICAL);
+		kanji = new LevelCache<Kanji> (Item.Type.KANJI);
+		vocab = new LevelCache<Vocabulary> (Item.Type.VOCABULARY);
+	}
+	
+	/**
+	 * Writes the contents of the cache.
+	 * @param out the output stream
+	 */
+	public void write (ItemCodec.Output out)
+		throws IOException
+	{
+		radicals.write (out);
+		kanji.write (out);
+		vocab.write (out);
+	}
+	
+	/**
+	 * Adds the levels written by {@link #write(ItemCodec.Output)} to this cache.
+	 * @param in the input stream
+	 */
+	public void read (ItemCodec.Input in)
+		throws IOException
+	{
+		radicals.read (in);
+		kanji.read (in);
+		vocab.read (in);
+	}
+	
+	private void writeObject (ObjectOutputStream oos)
+		throws IOException
+	{
+		ByteArrayOutputStream bos;
+		ItemCodec.Output out;
+		
+		bos = new ByteArrayOutputStream ();
+		out = new ItemCodec.Output (bos);
+		out.writeHeader ();
+		write (out);
+		out.flush ();
+		
+		oos.defaultWriteObject ();
+		oos.writeObject (bos.toByteArray ());
+	}
+	
+	private void readObject (ObjectInputStream ois)
+		throws IOException, ClassNotFoundException
+	{
+		ItemCodec.Input in;
+		
+		ois.defaultReadObject ();
+		init ();
+		
+		in = new ItemCodec.Input (new ByteArrayInputStream ((byte []) ois.readObject ()));
+		in.readHeader ();
+		read (in);
+	}
+	
+	/**
+	 * Attaches a persistent tier to this cache. Levels not found in memory 
+	 * are looked up in the store before going to the network, and
+	 * fresh data is written back to it.
+	 * Since the store is not serialized, it must be attached again
+	 * each time the cache is deserialized.
+	 * @param store the store, or <code>null</code> to keep the cache memory-only
+	 */
+	public void setStore (DiskItemsCache store)
+	{
+		this.store = store;
 	}
 }
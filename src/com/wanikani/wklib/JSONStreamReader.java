@@ -0,0 +1,506 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A minimal pull parser that reads JSON straight off an input stream.
+ * Android's <code>JsonReader</code> is not available on all the API levels
+ * we support, and <code>JSONTokener</code> needs the whole document
+ * in a string. This class lets the caller walk the outer structure
+ * of a response token by token, and materialize into <code>JSONObject</code>s
+ * only the (small) parts it actually needs.
+ * Each character read is reported to the meter, just like the old
+ * buffered implementation did.
+ */
+class JSONStreamReader {
+
+	public enum Token {
+
+		BEGIN_OBJECT,
+
+		END_OBJECT,
+
+		BEGIN_ARRAY,
+
+		END_ARRAY,
+
+		STRING,
+
+		NUMBER,
+
+		BOOLEAN,
+
+		NULL,
+
+		END_DOCUMENT
+
+	}
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private Connection.Meter meter;
+
+	private Reader reader;
+
+	private char buf [];
+
+	private int pos;
+
+	private int limit;
+
+	/// Set when we need a comma before the next value or name
+	private boolean needComma;
+
+	private StringBuffer sb;
+
+	public JSONStreamReader (Connection.Meter meter, InputStream is)
+		throws IOException
+	{
+		this.meter = meter;
+
+		reader = new InputStreamReader (is, "UTF-8");
+		buf = new char [BUFFER_SIZE];
+		sb = new StringBuffer ();
+	}
+
+	private boolean fill ()
+		throws IOException
+	{
+		int rd;
+
+		do {
+			rd = reader.read (buf, 0, buf.length);
+		} while (rd == 0);
+
+		if (rd < 0)
+			return false;
+
+		meter.count (rd);
+		pos = 0;
+		limit = rd;
+
+		return true;
+	}
+
+	private int read ()
+		throws IOException
+	{
+		if (pos == limit && !fill ())
+			return -1;
+
+		return buf [pos++];
+	}
+
+	private int peekChar ()
+		throws IOException
+	{
+		int ans;
+
+		while (true) {
+			if (pos == limit && !fill ())
+				return -1;
+			ans = buf [pos];
+			if (ans != ' ' && ans != '\t' && ans != '\n' && ans != '\r')
+				return ans;
+			pos++;
+		}
+	}
+
+	private char expect (String allowed)
+		throws IOException, JSONException
+	{
+		int c;
+
+		c = peekChar ();
+		if (c < 0 || allowed.indexOf (c) < 0)
+			throw new JSONException ("Expected one of '" + allowed + "', found " +
+									 (c < 0 ? "EOF" : "'" + (char) c + "'"));
+		pos++;
+
+		return (char) c;
+	}
+
+	private void skipComma ()
+		throws IOException, JSONException
+	{
+		int c;
+
+		if (needComma) {
+			c = peekChar ();
+			if (c == ',')
+				pos++;
+			else if (c != '}' && c != ']')
+				throw new JSONException ("Expected ','");
+			needComma = false;
+		}
+	}
+
+	/**
+	 * Returns the type of the next token, without consuming it.
+	 * @return the token type
+	 */
+	public Token peek ()
+		throws IOException, JSONException
+	{
+		int c;
+
+		skipComma ();
+		c = peekChar ();
+		switch (c) {
+		case -1:
+			return Token.END_DOCUMENT;
+
+		case '{':
+			return Token.BEGIN_OBJECT;
+
+		case '}':
+			return Token.END_OBJECT;
+
+		case '[':
+			return Token.BEGIN_ARRAY;
+
+		case ']':
+			return Token.END_ARRAY;
+
+		case '"':
+			return Token.STRING;
+
+		case 't':
+		case 'f':
+			return Token.BOOLEAN;
+
+		case 'n':
+			return Token.NULL;
+
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return Token.NUMBER;
+		}
+
+		throw new JSONException ("Unexpected character '" + (char) c + "'");
+	}
+
+	public boolean hasNext ()
+		throws IOException, JSONException
+	{
+		Token t;
+
+		t = peek ();
+
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public void beginObject ()
+		throws IOException, JSONException
+	{
+		skipComma ();
+		expect ("{");
+	}
+
+	public void endObject ()
+		throws IOException, JSONException
+	{
+		skipComma ();
+		expect ("}");
+		needComma = true;
+	}
+
+	public void beginArray ()
+		throws IOException, JSONException
+	{
+		skipComma ();
+		expect ("[");
+	}
+
+	public void endArray ()
+		throws IOException, JSONException
+	{
+		skipComma ();
+		expect ("]");
+		needComma = true;
+	}
+
+	public String nextName ()
+		throws IOException, JSONException
+	{
+		String ans;
+
+		skipComma ();
+		expect ("\"");
+		ans = readString ();
+		expect (":");
+
+		return ans;
+	}
+
+	/**
+	 * Consumes the next value if it is a <code>null</code> literal.
+	 * @return <code>true</code> if a null was consumed
+	 */
+	public boolean skipNull ()
+		throws IOException, JSONException
+	{
+		if (peek () != Token.NULL)
+			return false;
+
+		nextValue ();
+
+		return true;
+	}
+
+	/**
+	 * Reads the next value, which must be an object.
+	 * @return the object
+	 */
+	public JSONObject nextObject ()
+		throws IOException, JSONException
+	{
+		JSONObject ans;
+
+		ans = new JSONObject ();
+		beginObject ();
+		while (hasNext ())
+			ans.put (nextName (), nextValue ());
+		endObject ();
+
+		return ans;
+	}
+
+	/**
+	 * Reads the next value, which must be an array.
+	 * @return the array
+	 */
+	public JSONArray nextArray ()
+		throws IOException, JSONException
+	{
+		JSONArray ans;
+
+		ans = new JSONArray ();
+		beginArray ();
+		while (hasNext ())
+			ans.put (nextValue ());
+		endArray ();
+
+		return ans;
+	}
+
+	/**
+	 * Reads the next value, whatever its type is. Objects and arrays
+	 * are fully materialized.
+	 * @return the value, using the same types <code>JSONObject</code> uses
+	 */
+	public Object nextValue ()
+		throws IOException, JSONException
+	{
+		Object ans;
+
+		switch (peek ()) {
+		case BEGIN_OBJECT:
+			return nextObject ();
+
+		case BEGIN_ARRAY:
+			return nextArray ();
+
+		case STRING:
+			pos++;
+			ans = readString ();
+			break;
+
+		case NUMBER:
+			ans = readNumber ();
+			break;
+
+		case BOOLEAN:
+			ans = readLiteral ().equals ("true");
+			break;
+
+		case NULL:
+			readLiteral ();
+			ans = JSONObject.NULL;
+			break;
+
+		default:
+			throw new JSONException ("Value expected");
+		}
+
+		needComma = true;
+
+		return ans;
+	}
+
+	/**
+	 * Consumes what is left of the stream, so that the meter
+	 * gets the complete size of the response, and syncs the meter.
+	 */
+	public void drain ()
+		throws IOException
+	{
+		pos = limit;
+		while (fill ())
+			pos = limit;
+
+		meter.sync ();
+	}
+
+	private String readString ()
+		throws IOException, JSONException
+	{
+		int c;
+
+		sb.setLength (0);
+		while (true) {
+			c = read ();
+			if (c < 0)
+				throw new JSONException ("Unterminated string");
+			if (c == '"')
+				break;
+			if (c == '\\') {
+				c = read ();
+				switch (c) {
+				case 'b':
+					c = '\b';
+					break;
+
+				case 'f':
+					c = '\f';
+					break;
+
+				case 'n':
+					c = '\n';
+					break;
+
+				case 'r':
+					c = '\r';
+					break;
+
+				case 't':
+					c = '\t';
+					break;
+
+				case 'u':
+					c = readHex ();
+					break;
+
+				case '"':
+				case '\\':
+				case '/':
+					break;
+
+				default:
+					throw new JSONException ("Bad escape sequence");
+				}
+			}
+			sb.append ((char) c);
+		}
+
+		return sb.toString ();
+	}
+
+	private int readHex ()
+		throws IOException, JSONException
+	{
+		int i, c, d, ans;
+
+		ans = 0;
+		for (i = 0; i < 4; i++) {
+			c = read ();
+			d = c < 0 ? -1 : Character.digit (c, 16);
+			if (d < 0)
+				throw new JSONException ("Bad unicode escape");
+			ans = (ans << 4) | d;
+		}
+
+		return ans;
+	}
+
+	private String readLiteral ()
+		throws IOException, JSONException
+	{
+		String ans;
+		int c;
+
+		sb.setLength (0);
+		while (true) {
+			c = peekRaw ();
+			if (c < 'a' || c > 'z')
+				break;
+			sb.append ((char) c);
+			pos++;
+		}
+
+		ans = sb.toString ();
+		if (!ans.equals ("true") && !ans.equals ("false") && !ans.equals ("null"))
+			throw new JSONException ("Unexpected literal: " + ans);
+
+		return ans;
+	}
+
+	private Object readNumber ()
+		throws IOException, JSONException
+	{
+		boolean integral;
+		String s;
+		long l;
+		int c;
+
+		sb.setLength (0);
+		integral = true;
+		while (true) {
+			c = peekRaw ();
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+')
+				sb.append ((char) c);
+			else if (c == '.' || c == 'e' || c == 'E') {
+				sb.append ((char) c);
+				integral = false;
+			} else
+				break;
+			pos++;
+		}
+
+		s = sb.toString ();
+		try {
+			if (integral) {
+				l = Long.parseLong (s);
+				if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+					return Integer.valueOf ((int) l);
+				return Long.valueOf (l);
+			}
+			return Double.valueOf (s);
+		} catch (NumberFormatException e) {
+			throw new JSONException ("Bad number: " + s);
+		}
+	}
+
+	private int peekRaw ()
+		throws IOException
+	{
+		if (pos == limit && !fill ())
+			return -1;
+
+		return buf [pos];
+	}
+}
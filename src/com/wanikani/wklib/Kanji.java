@@ -1,5 +1,7 @@
 package com.wanikani.wklib;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,6 +31,12 @@ public class Kanji extends Item {
 		{
 			return new Kanji (obj);
 		}
+		
+		public Kanji deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return new Kanji (in);
+		}
 	}
 	
 	static class ItemFactory implements Item.Factory<Item> {
@@ -38,6 +46,12 @@ public class Kanji extends Item {
 		{
 			return new Kanji (obj);
 		}
+		
+		public Item deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return new Kanji (in);
+		}
 	}
 
 	public static final Item.Factory<Kanji> FACTORY = new Factory ();
@@ -84,6 +98,27 @@ public class Kanji extends Item {
 			throw new JSONException ("Unknown important reading: " + s);
 	}
 	
+	public Kanji (ItemCodec.Input in)
+		throws IOException
+	{
+		super (in, Item.Type.KANJI);
+		
+		onyomi = in.readString ();
+		kunyomi = in.readString ();
+		importantReading = Reading.values () [in.readByte ()];
+	}
+	
+	@Override
+	public void write (ItemCodec.Output out)
+		throws IOException
+	{
+		super.write (out);
+		
+		out.writeString (onyomi);
+		out.writeString (kunyomi);
+		out.writeByte (importantReading.ordinal ());
+	}
+	
 	public Item deserialize (JSONObject obj)
 		throws JSONException
 	{
@@ -103,5 +138,11 @@ public class Kanji extends Item {
 				(kunyomi != null && kunyomi.contains (s));
 	}
 	
+	@Override
+	public String [] getSearchTerms ()
+	{
+		return new String [] { meaning, character, onyomi, kunyomi };
+	}
+	
 }
 ;
\ No newline at end of file
@@ -0,0 +1,296 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Loads a (possibly large) set of levels through a sequence of multi-level
+ * requests. The number of levels of each request is chosen by looking
+ * at the size and throughput of the previous requests for the same item type,
+ * so that each response is close to a target payload.
+ * While the caller consumes a batch, the next one is already being
+ * fetched in background.
+ * Instances are created by the <code>Connection.get*Batches</code> methods.
+ */
+public abstract class LevelBatches<T extends Item> {
+
+	/**
+	 * What we learnt about the responses of a given item type.
+	 * Values are exponentially weighted moving averages.
+	 */
+	private static class Stats {
+
+		/// Bytes per level
+		double bytesPerLevel;
+
+		/// Bytes per millisecond, or zero if unknown
+		double throughput;
+
+		public Stats (double bytesPerLevel)
+		{
+			this.bytesPerLevel = bytesPerLevel;
+		}
+
+		public synchronized void update (int levels, long bytes, long millis)
+		{
+			if (bytes <= 0 || levels <= 0)
+				return;
+
+			bytesPerLevel = WEIGHT * bytes / levels + (1 - WEIGHT) * bytesPerLevel;
+			if (millis > 0)
+				throughput = throughput > 0 ?
+					WEIGHT * bytes / millis + (1 - WEIGHT) * throughput :
+					(double) bytes / millis;
+		}
+
+		public synchronized int plan ()
+		{
+			double target;
+
+			target = throughput > 0 ? throughput * TARGET_MILLIS : DEFAULT_PAYLOAD;
+			target = Math.max (MIN_PAYLOAD, Math.min (MAX_PAYLOAD, target));
+
+			return Math.max (1, (int) (target / bytesPerLevel));
+		}
+	}
+
+	/**
+	 * A meter that forwards everything to the caller's meter, keeping
+	 * track of the number of bytes of a single request.
+	 * Since requests run on a different thread, access to the caller's meter
+	 * is synchronized on the meter itself.
+	 */
+	private static class CountingMeter implements Connection.Meter {
+
+		Connection.Meter meter;
+
+		long bytes;
+
+		public CountingMeter (Connection.Meter meter)
+		{
+			this.meter = meter;
+		}
+
+		public void count (int data)
+		{
+			bytes += data;
+			synchronized (meter) {
+				meter.count (data);
+			}
+		}
+
+		public void sync ()
+		{
+			synchronized (meter) {
+				meter.sync ();
+			}
+		}
+
+		public void saved (int data)
+		{
+			synchronized (meter) {
+				meter.saved (data);
+			}
+		}
+	}
+
+	/**
+	 * The request submitted to the fetch executor.
+	 */
+	private class Request implements FetchExecutor.Request<ItemLibrary<T>> {
+
+		int levels [];
+
+		public Request (int levels [])
+		{
+			this.levels = levels;
+		}
+
+		public ItemLibrary<T> fetch (Connection conn)
+			throws IOException
+		{
+			CountingMeter cmeter;
+			ItemLibrary<T> ans;
+			long start;
+
+			cmeter = new CountingMeter (meter);
+			start = System.currentTimeMillis ();
+			ans = LevelBatches.this.fetch (cmeter, levels);
+			stats.update (levels.length, cmeter.bytes,
+						  System.currentTimeMillis () - start);
+
+			return ans;
+		}
+	}
+
+	/// Weight of the last sample in the moving averages
+	private static final double WEIGHT = 0.5;
+
+	/// Expected duration of each request
+	public static final long TARGET_MILLIS = 3000;
+
+	/// Payload size used before the throughput is known
+	public static final int DEFAULT_PAYLOAD = 128 * 1024;
+
+	/// Minimum payload size
+	public static final int MIN_PAYLOAD = 32 * 1024;
+
+	/// Maximum payload size
+	public static final int MAX_PAYLOAD = 1024 * 1024;
+
+	/// Per item type statistics, shared by all the connections
+	private static final Stats STATS [] = new Stats [] {
+		new Stats (4 * 1024),		/* radicals */
+		new Stats (16 * 1024),		/* kanji */
+		new Stats (48 * 1024)		/* vocabulary */
+	};
+
+	/// The connection
+	private Connection conn;
+
+	/// The caller's meter
+	private Connection.Meter meter;
+
+	/// The statistics of this item type
+	private Stats stats;
+
+	/// All the levels to load
+	private int levels [];
+
+	/// Index of the first level not yet requested
+	private int pos;
+
+	/// The request being fetched, if any
+	private Request current;
+
+	/// The batch it belongs to
+	private FetchExecutor.Batch batch;
+
+	protected LevelBatches (Connection conn, Connection.Meter meter,
+							Item.Type type, int levels [])
+	{
+		this.conn = conn;
+		this.meter = meter;
+		this.levels = levels;
+
+		stats = STATS [type.ordinal ()];
+	}
+
+	/**
+	 * Performs the actual request.
+	 * @param meter the meter
+	 * @param levels the levels of this batch
+	 * @return the items
+	 */
+	protected abstract ItemLibrary<T> fetch (Connection.Meter meter, int levels [])
+		throws IOException;
+
+	/**
+	 * Tells if there are more levels to load.
+	 * @return <code>true</code> if {@link #next()} can be called
+	 */
+	public boolean hasNext ()
+	{
+		return current != null || pos < levels.length;
+	}
+
+	/**
+	 * Returns the levels that will be returned by the next call
+	 * to {@link #next()}. The request is started, if it was not already.
+	 * @return the levels
+	 */
+	public int [] nextLevels ()
+	{
+		if (current == null)
+			submit ();
+
+		return current.levels;
+	}
+
+	/**
+	 * Waits for the next batch of levels, and starts loading
+	 * the following one.
+	 * @return the items
+	 * @throws IOException if the request failed
+	 */
+	public ItemLibrary<T> next ()
+		throws IOException
+	{
+		ItemLibrary<T> ans;
+		Request req;
+
+		if (current == null)
+			submit ();
+		req = current;
+		current = null;
+
+		try {
+			ans = batch.get (req);
+		} catch (IOException e) {
+			pos = levels.length;
+			throw e;
+		}
+
+		if (pos < levels.length)
+			submit ();
+
+		return ans;
+	}
+
+	/**
+	 * Cancels the prefetched request, if it has not started yet.
+	 */
+	public void cancel ()
+	{
+		if (batch != null)
+			batch.cancel ();
+		current = null;
+		pos = levels.length;
+	}
+
+	/**
+	 * Loads all the remaining levels.
+	 * @return the items
+	 * @throws IOException if any request failed
+	 */
+	public ItemLibrary<T> collect ()
+		throws IOException
+	{
+		ItemLibrary<T> ans;
+
+		ans = new ItemLibrary<T> ();
+		while (hasNext ())
+			ans.add (next ());
+
+		return ans;
+	}
+
+	private void submit ()
+	{
+		int n, slice [];
+
+		n = Math.min (stats.plan (), levels.length - pos);
+		slice = new int [n];
+		System.arraycopy (levels, pos, slice, 0, n);
+		pos += n;
+
+		current = new Request (slice);
+		batch = conn.fetchAll (current);
+	}
+}
@@ -1,5 +1,7 @@
 package com.wanikani.wklib;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -12,6 +14,12 @@ public class Radical extends Item {
 		{
 			return new Radical (obj);
 		}
+		
+		public Radical deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return new Radical (in);
+		}
 	}
 
 	private static class ItemFactory implements Item.Factory<Item> {
@@ -21,6 +29,12 @@ public class Radical extends Item {
 		{
 			return new Radical (obj);
 		}
+		
+		public Radical deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return new Radical (in);
+		}
 	}
 
 	public static final long serialVersionUID = 1L;
@@ -44,6 +58,25 @@ public class Radical extends Item {
 		meaning = meaning.replace ('-', ' ');
 	}	
 
+	public Radical (ItemCodec.Input in)
+		throws IOException
+	{
+		super (in, Item.Type.RADICAL);
+		
+		image = in.readString ();
+		hyphenatedMeaning = in.readString ();
+	}
+	
+	@Override
+	public void write (ItemCodec.Output out)
+		throws IOException
+	{
+		super.write (out);
+		
+		out.writeString (image);
+		out.writeString (hyphenatedMeaning);
+	}
+
 	@Override
 	protected boolean hasReading ()
 	{
@@ -52,6 +52,17 @@ public class Util {
 						null : new Date (obj.getLong (key) * 1000);
 	}
 	
+	public static long getTime (JSONObject obj, String key)
+			throws JSONException
+	{		
+			return obj.isNull (key) ? 0 : obj.getLong (key); 
+	}
+	
+	public static Date toDate (long time)
+	{		
+			return time == 0 ? null : new Date (time * 1000); 
+	}
+	
 	public static URL getURL (JSONObject obj, String key)
 			throws JSONException
 	{
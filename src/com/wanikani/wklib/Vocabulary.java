@@ -1,5 +1,7 @@
 package com.wanikani.wklib;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,6 +31,12 @@ public class Vocabulary extends Item {
 		{
 			return new Vocabulary (obj);
 		}
+		
+		public Vocabulary deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return new Vocabulary (in);
+		}
 	}
 
 	private static class ItemFactory implements Item.Factory<Item> {
@@ -38,6 +46,12 @@ public class Vocabulary extends Item {
 		{
 			return new Vocabulary (obj);
 		}
+		
+		public Vocabulary deserialize (ItemCodec.Input in)
+			throws IOException
+		{
+			return new Vocabulary (in);
+		}
 	}
 
 	public static final long serialVersionUID = 1L;	
@@ -56,6 +70,23 @@ public class Vocabulary extends Item {
 		kana = Util.getString (obj, "kana");
 	}
 	
+	public Vocabulary (ItemCodec.Input in)
+		throws IOException
+	{
+		super (in, Item.Type.VOCABULARY);
+		
+		kana = in.readString ();
+	}
+	
+	@Override
+	public void write (ItemCodec.Output out)
+		throws IOException
+	{
+		super.write (out);
+		
+		out.writeString (kana);
+	}
+	
 	protected String getClassURLComponent ()
 	{
 		return "vocabulary";
@@ -66,4 +97,10 @@ public class Vocabulary extends Item {
 		return super.matches (s) ||
 				kana.contains (s);
 	}
+	
+	@Override
+	public String [] getSearchTerms ()
+	{
+		return new String [] { meaning, character, kana };
+	}
 }